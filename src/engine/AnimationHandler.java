@@ -27,6 +27,21 @@ public class AnimationHandler {
 	 */
 	private boolean repeat;
 	
+	/**
+	 * The flips applied to the image when drawn, as a combination of SpriteVariants flags
+	 */
+	private int flip = SpriteVariants.FLIP_NONE;
+	
+	/**
+	 * The angle the image is rotated by when drawn, in degrees clockwise
+	 */
+	private double angle = 0;
+	
+	/**
+	 * The factor the image is scaled by when drawn
+	 */
+	private double scale = 1;
+	
 	/**
 	 * Constructs a new AnimationHandler with the given image, defaulting to a static image.
 	 * @param image The image to use
@@ -55,23 +70,72 @@ public class AnimationHandler {
 	 * @param y The y coordinate to draw at
 	 */
 	public void draw (double x, double y) {
+		draw (x, y, 0);
+	}
+	
+	/**
+	 * Draws the sprite's current animation frame at the given x and y coordinates and depth.
+	 * @param x The x coordinate to draw at
+	 * @param y The y coordinate to draw at
+	 * @param depth The depth to draw at; sprites with a higher depth are drawn behind those with a lower depth
+	 */
+	public void draw (double x, double y, int depth) {
 		if (image != null) {
 			if (frameTime == 0) {
 				startTime = RenderLoop.frameStartTime ();
-				image.draw ((int)x, (int)y, startFrame);
-			} else {
-				long elapsedTime = RenderLoop.frameStartTime () - startTime;
-				int elapsedFrames = ((int)(((double)elapsedTime) / ((double)frameTime)) + startFrame);
-				if (!repeat && elapsedFrames >= image.getFrameCount ()) {
-					image.draw ((int)x, (int)y, image.getFrameCount () - 1);
-				} else {
-					int frame = elapsedFrames % image.getFrameCount ();
-					image.draw ((int)x, (int)y, frame);
-				}
 			}
+			image.drawTransformed ((int)x, (int)y, getFrame (), flip, angle, scale, depth);
 		}
 	}
 	
+	/**
+	 * Sets the flips applied to the image when it is drawn, e.g. to face the other direction.
+	 * @param flip Any combination of SpriteVariants.FLIP_HORIZONTAL and SpriteVariants.FLIP_VERTICAL, or SpriteVariants.FLIP_NONE
+	 */
+	public void setFlip (int flip) {
+		this.flip = flip;
+	}
+	
+	/**
+	 * Gets the flips applied to the image when it is drawn.
+	 * @return The flip flags of this AnimationHandler
+	 */
+	public int getFlip () {
+		return flip;
+	}
+	
+	/**
+	 * Sets the angle the image is rotated by about its center when it is drawn.
+	 * @param angle The angle to use, in degrees clockwise
+	 */
+	public void setAngle (double angle) {
+		this.angle = angle;
+	}
+	
+	/**
+	 * Gets the angle the image is rotated by when it is drawn.
+	 * @return The angle, in degrees clockwise
+	 */
+	public double getAngle () {
+		return angle;
+	}
+	
+	/**
+	 * Sets the factor the image is scaled by about its center when it is drawn.
+	 * @param scale The scale factor to use
+	 */
+	public void setScale (double scale) {
+		this.scale = scale;
+	}
+	
+	/**
+	 * Gets the factor the image is scaled by when it is drawn.
+	 * @return The scale factor
+	 */
+	public double getScale () {
+		return scale;
+	}
+	
 	/**
 	 * Sets the image used by this AnimationHandler to the given sprite.
 	 * @param image The image to use
@@ -128,12 +192,18 @@ public class AnimationHandler {
 	 * @return The current frame for this AnimationHandler
 	 */
 	public int getFrame () {
-		if (image != null) {
-			long elapsedTime = RenderLoop.frameStartTime () - startTime;
-			return ((int)(((double)elapsedTime) / ((double)frameTime)) + startFrame) % image.getFrameCount ();
-		} else {
+		if (image == null) {
 			return -1;
 		}
+		if (frameTime == 0) {
+			return startFrame;
+		}
+		long elapsedTime = RenderLoop.frameStartTime () - startTime;
+		int elapsedFrames = ((int)(((double)elapsedTime) / ((double)frameTime)) + startFrame);
+		if (!repeat && elapsedFrames >= image.getFrameCount ()) {
+			return image.getFrameCount () - 1;
+		}
+		return elapsedFrames % image.getFrameCount ();
 	}
 	
 	/**
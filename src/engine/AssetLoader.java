@@ -0,0 +1,142 @@
+package engine;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads sprites on a pool of background threads, so that images can be decoded in parallel and behind a loading screen instead of freezing the game.
+ * Each load returns a Future for the finished Sprite. Requests for an asset which is already loading share the same Future rather than decoding it twice.
+ * @author nathan
+ *
+ */
+public class AssetLoader {
+	
+	/**
+	 * The threads which load assets
+	 */
+	private static ExecutorService workers = Executors.newFixedThreadPool (Runtime.getRuntime ().availableProcessors (), new ThreadFactory () {
+		@Override
+		public Thread newThread (Runnable task) {
+			Thread thread = new Thread (task, "AssetLoader");
+			thread.setDaemon (true);
+			return thread;
+		}
+	});
+	/**
+	 * The loads currently in progress, by asset key
+	 */
+	private static ConcurrentHashMap<String, Future<Sprite>> loading = new ConcurrentHashMap<String, Future<Sprite>> ();
+	/**
+	 * The number of loads which have been requested but not finished
+	 */
+	private static AtomicInteger pendingCount = new AtomicInteger ();
+	
+	/**
+	 * AssetLoader cannot be constructed.
+	 */
+	private AssetLoader () {
+		
+	}
+	
+	/**
+	 * Starts loading the sprite with the given image filepath, as with new Sprite (imagepath).
+	 * @param imagepath The filepath of the image
+	 * @return The pending sprite
+	 */
+	public static Future<Sprite> load (final String imagepath) {
+		return submit (imagepath, new Callable<Sprite> () {
+			@Override
+			public Sprite call () {
+				return new Sprite (imagepath);
+			}
+		});
+	}
+	
+	/**
+	 * Starts loading the sprite with the given image and parsing parameter filepaths, as with new Sprite (imagepath, parsepath).
+	 * @param imagepath The filepath of the image
+	 * @param parsepath The filepath of the parsing parameters
+	 * @return The pending sprite
+	 */
+	public static Future<Sprite> load (final String imagepath, final String parsepath) {
+		return submit (imagepath + ":" + parsepath, new Callable<Sprite> () {
+			@Override
+			public Sprite call () {
+				return new Sprite (imagepath, parsepath);
+			}
+		});
+	}
+	
+	/**
+	 * Starts loading the sprite with the given image filepath and parser, as with new Sprite (imagepath, parser).
+	 * @param imagepath The filepath of the image
+	 * @param parser The parser to split the image with
+	 * @return The pending sprite
+	 */
+	public static Future<Sprite> load (final String imagepath, final SpriteParser parser) {
+		return submit (imagepath + ":" + parser.getKey (), new Callable<Sprite> () {
+			@Override
+			public Sprite call () {
+				return new Sprite (imagepath, parser);
+			}
+		});
+	}
+	
+	/**
+	 * Waits for a pending sprite to finish loading.
+	 * @param pending The pending sprite, as returned by load
+	 * @return The loaded sprite; null if loading failed or was interrupted
+	 */
+	public static Sprite get (Future<Sprite> pending) {
+		try {
+			return pending.get ();
+		} catch (InterruptedException e) {
+			Thread.currentThread ().interrupt ();
+		} catch (ExecutionException e) {
+			e.getCause ().printStackTrace ();
+		}
+		return null;
+	}
+	
+	/**
+	 * Gets the number of loads which have been requested but not finished, e.g. to show progress on a loading screen.
+	 * @return The number of pending loads
+	 */
+	public static int getPendingCount () {
+		return pendingCount.get ();
+	}
+	
+	/**
+	 * Starts the given load, or returns the load already in progress with the same key.
+	 * @param key The key identifying the load
+	 * @param loader The task which loads the sprite
+	 * @return The pending sprite
+	 */
+	static Future<Sprite> submit (final String key, Callable<Sprite> loader) {
+		Future<Sprite> pending = loading.get (key);
+		if (pending != null) {
+			return pending;
+		}
+		FutureTask<Sprite> task = new FutureTask<Sprite> (loader) {
+			@Override
+			protected void done () {
+				loading.remove (key, this);
+				pendingCount.decrementAndGet ();
+			}
+		};
+		pending = loading.putIfAbsent (key, task);
+		if (pending != null) {
+			return pending;
+		}
+		pendingCount.incrementAndGet ();
+		workers.execute (task);
+		return task;
+	}
+}
@@ -0,0 +1,146 @@
+package engine;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A handle for the assets used by one part of the game, such as a room, which can all be released together when it is no longer needed.
+ * Each sprite acquired through a scope holds its entry in the SpriteCache, and the holds are counted across all scopes. Releasing a scope evicts the images only it was holding, while images also held by another scope stay cached, so they are not decoded again.
+ * To keep shared assets loaded across a transition, acquire the next scope's assets before releasing the previous scope.
+ * @author nathan
+ *
+ */
+public class AssetScope {
+	
+	/**
+	 * The id of the next scope constructed
+	 */
+	private static AtomicInteger nextId = new AtomicInteger ();
+	
+	/**
+	 * Identifies this scope's loads in the AssetLoader
+	 */
+	private final int id;
+	/**
+	 * The sprites acquired through this scope, each holding its cache entry
+	 */
+	private ArrayList<Sprite> held = new ArrayList<Sprite> ();
+	/**
+	 * Whether this scope has been released
+	 */
+	private boolean released = false;
+	
+	/**
+	 * Constructs a new, empty AssetScope.
+	 */
+	public AssetScope () {
+		id = nextId.getAndIncrement ();
+	}
+	
+	/**
+	 * Acquires the sprite with the given image filepath, as with new Sprite (imagepath).
+	 * @param imagepath The filepath of the image
+	 * @return The sprite, which stays cached until this scope is released
+	 */
+	public Sprite acquire (String imagepath) {
+		checkReleased ();
+		return add (Sprite.createHeld (imagepath, null, null));
+	}
+	
+	/**
+	 * Acquires the sprite with the given image and parsing parameter filepaths, as with new Sprite (imagepath, parsepath).
+	 * @param imagepath The filepath of the image
+	 * @param parsepath The filepath of the parsing parameters
+	 * @return The sprite, which stays cached until this scope is released
+	 */
+	public Sprite acquire (String imagepath, String parsepath) {
+		checkReleased ();
+		return add (Sprite.createHeld (imagepath, parsepath, null));
+	}
+	
+	/**
+	 * Acquires the sprite with the given image filepath and parser, as with new Sprite (imagepath, parser).
+	 * @param imagepath The filepath of the image
+	 * @param parser The parser to split the image with
+	 * @return The sprite, which stays cached until this scope is released
+	 */
+	public Sprite acquire (String imagepath, SpriteParser parser) {
+		checkReleased ();
+		return add (Sprite.createHeld (imagepath, null, parser));
+	}
+	
+	/**
+	 * Starts acquiring the sprite with the given image filepath and parser on the AssetLoader's threads.
+	 * @param imagepath The filepath of the image
+	 * @param parser The parser to split the image with
+	 * @return The pending sprite, which stays cached until this scope is released
+	 */
+	public Future<Sprite> load (final String imagepath, final SpriteParser parser) {
+		checkReleased ();
+		return AssetLoader.submit ("scope " + id + ":" + imagepath + ":" + parser.getKey (), new Callable<Sprite> () {
+			@Override
+			public Sprite call () {
+				return acquire (imagepath, parser);
+			}
+		});
+	}
+	
+	/**
+	 * Releases every sprite acquired through this scope. Images which no other scope holds and no reachable Sprite uses are evicted from the cache. Sprites acquired through this scope can still be drawn, but are no longer cached.
+	 */
+	public void release () {
+		ArrayList<Sprite> releasing;
+		synchronized (this) {
+			if (released) {
+				return;
+			}
+			released = true;
+			releasing = held;
+			held = new ArrayList<Sprite> ();
+		}
+		for (int i = 0; i < releasing.size (); i ++) {
+			releasing.get (i).release ();
+		}
+	}
+	
+	/**
+	 * Returns true if this scope has been released.
+	 * @return Whether this scope has been released
+	 */
+	public synchronized boolean isReleased () {
+		return released;
+	}
+	
+	/**
+	 * Gets the number of sprites acquired through this scope.
+	 * @return The number of acquired sprites
+	 */
+	public synchronized int size () {
+		return held.size ();
+	}
+	
+	/**
+	 * Records a sprite acquired through this scope, releasing it straight away if the scope was released while it was loading.
+	 */
+	private Sprite add (Sprite sprite) {
+		synchronized (this) {
+			if (!released) {
+				held.add (sprite);
+				return sprite;
+			}
+		}
+		sprite.release ();
+		return sprite;
+	}
+	
+	/**
+	 * Throws an IllegalStateException if this scope has been released.
+	 */
+	private synchronized void checkReleased () {
+		if (released) {
+			throw new IllegalStateException ("AssetScope has already been released");
+		}
+	}
+}
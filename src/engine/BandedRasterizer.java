@@ -0,0 +1,140 @@
+package engine;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Draws the commands in a RenderQueue in parallel by splitting the target image into horizontal bands, each drawn by its own thread.
+ * Every band replays the whole sorted command list through a RasterBlitter clipped to its rows, so the bands never write to the same pixels and the result is identical to drawing on one thread.
+ * @author nathan
+ *
+ */
+public class BandedRasterizer {
+	
+	/**
+	 * The image being drawn to
+	 */
+	private BufferedImage target;
+	/**
+	 * The blitter used to draw each band
+	 */
+	private RasterBlitter[] blitters;
+	/**
+	 * The first row of each band, with the height of the target at the end
+	 */
+	private int[] bandStarts;
+	/**
+	 * The threads which draw all but the last band; the last band is drawn by the calling thread
+	 */
+	private ExecutorService workers;
+	/**
+	 * The pending work of each worker band in the current frame
+	 */
+	private Future<?>[] pending;
+	
+	/**
+	 * Constructs a new BandedRasterizer which draws to the given image with one band per available processor.
+	 * @param target The image to draw to; must be of type TYPE_INT_RGB or TYPE_INT_ARGB
+	 */
+	public BandedRasterizer (BufferedImage target) {
+		this (target, Runtime.getRuntime ().availableProcessors ());
+	}
+	
+	/**
+	 * Constructs a new BandedRasterizer which draws to the given image.
+	 * @param target The image to draw to; must be of type TYPE_INT_RGB or TYPE_INT_ARGB
+	 * @param bandCount The number of bands to split the image into; capped at the height of the image
+	 */
+	public BandedRasterizer (BufferedImage target, int bandCount) {
+		if (bandCount < 1) {
+			throw new IllegalArgumentException ("A BandedRasterizer needs at least one band");
+		}
+		bandCount = Math.min (bandCount, target.getHeight ());
+		this.target = target;
+		blitters = new RasterBlitter[bandCount];
+		bandStarts = new int[bandCount + 1];
+		for (int i = 0; i < bandCount; i ++) {
+			blitters [i] = new RasterBlitter (target);
+			bandStarts [i] = (int)((long)target.getHeight () * i / bandCount);
+		}
+		bandStarts [bandCount] = target.getHeight ();
+		pending = new Future<?>[bandCount - 1];
+		if (bandCount > 1) {
+			workers = Executors.newFixedThreadPool (bandCount - 1, new ThreadFactory () {
+				@Override
+				public Thread newThread (Runnable task) {
+					Thread thread = new Thread (task, "BandedRasterizer");
+					thread.setDaemon (true);
+					return thread;
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Draws all the commands in the given queue within the given rectangle, returning once every band is finished. The queue is not cleared.
+	 * @param queue The commands to draw; must not be modified until this method returns
+	 * @param clipX The x-coordinate of the rectangle to draw within
+	 * @param clipY The y-coordinate of the rectangle to draw within
+	 * @param clipWidth The width of the rectangle to draw within
+	 * @param clipHeight The height of the rectangle to draw within
+	 */
+	public void draw (final RenderQueue queue, int clipX, int clipY, int clipWidth, int clipHeight) {
+		queue.prepare ();
+		int bandCount = blitters.length;
+		for (int i = 0; i < bandCount; i ++) {
+			int y1 = Math.max (bandStarts [i], clipY);
+			int y2 = Math.min (bandStarts [i + 1], clipY + clipHeight);
+			blitters [i].setClip (clipX, y1, clipWidth, Math.max (y2 - y1, 0));
+		}
+		for (int i = 0; i < bandCount - 1; i ++) {
+			final RasterBlitter blitter = blitters [i];
+			pending [i] = workers.submit (new Runnable () {
+				@Override
+				public void run () {
+					queue.replay (blitter);
+				}
+			});
+		}
+		queue.replay (blitters [bandCount - 1]);
+		for (int i = 0; i < bandCount - 1; i ++) {
+			try {
+				pending [i].get ();
+			} catch (InterruptedException e) {
+				Thread.currentThread ().interrupt ();
+			} catch (ExecutionException e) {
+				e.printStackTrace ();
+			}
+			pending [i] = null;
+		}
+	}
+	
+	/**
+	 * Gets the image this BandedRasterizer draws to.
+	 * @return The target image
+	 */
+	public BufferedImage getTarget () {
+		return target;
+	}
+	
+	/**
+	 * Gets the number of bands the target image is split into.
+	 * @return The number of bands
+	 */
+	public int getBandCount () {
+		return blitters.length;
+	}
+	
+	/**
+	 * Stops the worker threads. This BandedRasterizer cannot be used afterwards.
+	 */
+	public void shutdown () {
+		if (workers != null) {
+			workers.shutdown ();
+		}
+	}
+}
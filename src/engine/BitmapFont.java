@@ -0,0 +1,279 @@
+package engine;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Draws text from a sheet of pre-rendered glyphs, each of which is a frame of a Sprite, so text goes through the same draw path as every other sprite.
+ * Fonts are loaded from a font sheet parsed with SpriteParser, or rasterized once from a system font. The glyph layout of each string drawn is cached, so static text is laid out once, and numbers can be drawn without creating Strings.
+ * @author nathan
+ *
+ */
+public class BitmapFont {
+	
+	/**
+	 * The first character included when rasterizing a system font
+	 */
+	public static final char FIRST_CHAR = ' ';
+	/**
+	 * The last character included when rasterizing a system font
+	 */
+	public static final char LAST_CHAR = '~';
+	/**
+	 * The maximum number of string layouts kept in the cache
+	 */
+	public static final int LAYOUT_CACHE_SIZE = 256;
+	
+	/**
+	 * The glyphs of this font, one frame per character
+	 */
+	private Sprite glyphs;
+	/**
+	 * The character drawn by the first frame of glyphs
+	 */
+	private char firstChar;
+	/**
+	 * The horizontal distance to move after drawing each glyph, in pixels
+	 */
+	private int[] advances;
+	/**
+	 * The vertical distance between lines of text, in pixels
+	 */
+	private int lineHeight;
+	/**
+	 * The cached layouts of recently drawn strings, as triples of glyph frame, x offset and y offset
+	 */
+	private LinkedHashMap<String, int[]> layouts;
+	/**
+	 * Scratch space for the digits of numbers being drawn
+	 */
+	private final int[] digits = new int[20];
+	
+	/**
+	 * Constructs a new monospaced BitmapFont from a font sheet. Each frame produced by the parsing parameters is the glyph of the next character, starting from firstChar.
+	 * @param imagepath The filepath of the font sheet
+	 * @param parsepath The filepath of the parsing parameters which split the sheet into glyphs
+	 * @param firstChar The character of the first glyph
+	 */
+	public BitmapFont (String imagepath, String parsepath, char firstChar) {
+		this (new Sprite (imagepath, parsepath), firstChar, null);
+	}
+	
+	/**
+	 * Constructs a new BitmapFont from the given glyphs.
+	 * @param glyphs The glyphs of the font, one frame per character
+	 * @param firstChar The character of the first frame
+	 * @param advances The horizontal distance to move after drawing each glyph; null to use the width of each glyph
+	 */
+	public BitmapFont (Sprite glyphs, char firstChar, int[] advances) {
+		this.glyphs = glyphs;
+		this.firstChar = firstChar;
+		if (advances == null) {
+			advances = new int[glyphs.getFrameCount ()];
+			for (int i = 0; i < advances.length; i ++) {
+				advances [i] = glyphs.getFrame (i).getWidth ();
+			}
+		}
+		this.advances = advances;
+		lineHeight = 0;
+		for (int i = 0; i < glyphs.getFrameCount (); i ++) {
+			lineHeight = Math.max (lineHeight, glyphs.getFrame (i).getHeight ());
+		}
+		layouts = new LinkedHashMap<String, int[]> (16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry (Map.Entry<String, int[]> eldest) {
+				return size () > LAYOUT_CACHE_SIZE;
+			}
+		};
+	}
+	
+	/**
+	 * Rasterizes the printable ASCII characters of a system font into a glyph sheet, once, and creates a BitmapFont from it.
+	 * @param font The font to rasterize
+	 * @param color The color to draw the glyphs in
+	 * @param antialias Whether to smooth the edges of the glyphs; smoothed glyphs are translucent and slower to draw
+	 * @return The rasterized font
+	 */
+	public static BitmapFont fromSystemFont (Font font, Color color, boolean antialias) {
+		Graphics2D measureGraphics = new BufferedImage (1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics ();
+		FontMetrics metrics = measureGraphics.getFontMetrics (font);
+		measureGraphics.dispose ();
+		int glyphCount = LAST_CHAR - FIRST_CHAR + 1;
+		int[] advances = new int[glyphCount];
+		int sheetWidth = 0;
+		for (int i = 0; i < glyphCount; i ++) {
+			advances [i] = metrics.charWidth ((char)(FIRST_CHAR + i));
+			sheetWidth += Math.max (advances [i], 1);
+		}
+		int height = Math.max (metrics.getHeight (), 1);
+		BufferedImage sheet = new BufferedImage (sheetWidth, height, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D sheetGraphics = sheet.createGraphics ();
+		sheetGraphics.setRenderingHint (RenderingHints.KEY_TEXT_ANTIALIASING, antialias ? RenderingHints.VALUE_TEXT_ANTIALIAS_ON : RenderingHints.VALUE_TEXT_ANTIALIAS_OFF);
+		sheetGraphics.setFont (font);
+		sheetGraphics.setColor (color);
+		ArrayList<String> parameters = new ArrayList<String> ();
+		int x = 0;
+		for (int i = 0; i < glyphCount; i ++) {
+			int width = Math.max (advances [i], 1);
+			sheetGraphics.drawString (String.valueOf ((char)(FIRST_CHAR + i)), x, metrics.getAscent ());
+			parameters.add ("rectangle " + x + " " + 0 + " " + width + " " + height);
+			x += width;
+		}
+		sheetGraphics.dispose ();
+		return new BitmapFont (new Sprite (sheet, new SpriteParser (parameters)), FIRST_CHAR, advances);
+	}
+	
+	/**
+	 * Draws the given text with its top-left corner at (x, y). Newlines start a new line; characters without a glyph are skipped.
+	 * @param text The text to draw
+	 * @param x The x-coordinate to draw at
+	 * @param y The y-coordinate to draw at
+	 * @param depth The depth to draw at
+	 */
+	public void draw (String text, int x, int y, int depth) {
+		int[] layout = getLayout (text);
+		for (int i = 0; i < layout.length; i += 3) {
+			glyphs.draw (x + layout [i + 1], y + layout [i + 2], layout [i], depth);
+		}
+	}
+	
+	/**
+	 * Draws the given text with its top-left corner at (x, y).
+	 * @param text The text to draw
+	 * @param x The x-coordinate to draw at
+	 * @param y The y-coordinate to draw at
+	 */
+	public void draw (String text, int x, int y) {
+		draw (text, x, y, 0);
+	}
+	
+	/**
+	 * Draws the given number in decimal with its top-left corner at (x, y), without creating a String.
+	 * @param value The number to draw
+	 * @param x The x-coordinate to draw at
+	 * @param y The y-coordinate to draw at
+	 * @param depth The depth to draw at
+	 */
+	public void drawNumber (long value, int x, int y, int depth) {
+		int count = 0;
+		long remaining = value < 0 ? value : -value;
+		do {
+			digits [count ++] = (int)-(remaining % 10);
+			remaining /= 10;
+		} while (remaining != 0);
+		if (value < 0) {
+			x = drawChar ('-', x, y, depth);
+		}
+		while (count > 0) {
+			x = drawChar ((char)('0' + digits [-- count]), x, y, depth);
+		}
+	}
+	
+	/**
+	 * Draws the given number in decimal with its top-left corner at (x, y), without creating a String.
+	 * @param value The number to draw
+	 * @param x The x-coordinate to draw at
+	 * @param y The y-coordinate to draw at
+	 */
+	public void drawNumber (long value, int x, int y) {
+		drawNumber (value, x, y, 0);
+	}
+	
+	/**
+	 * Draws a single character with its top-left corner at (x, y).
+	 * @return The x-coordinate of the next character
+	 */
+	private int drawChar (char c, int x, int y, int depth) {
+		int frame = c - firstChar;
+		if (frame < 0 || frame >= advances.length) {
+			return x;
+		}
+		glyphs.draw (x, y, frame, depth);
+		return x + advances [frame];
+	}
+	
+	/**
+	 * Gets the width of the widest line of the given text.
+	 * @param text The text to measure
+	 * @return The width of the text, in pixels
+	 */
+	public int getWidth (String text) {
+		int width = 0;
+		int lineWidth = 0;
+		for (int i = 0; i < text.length (); i ++) {
+			char c = text.charAt (i);
+			if (c == '\n') {
+				lineWidth = 0;
+				continue;
+			}
+			int frame = c - firstChar;
+			if (frame >= 0 && frame < advances.length) {
+				lineWidth += advances [frame];
+				width = Math.max (width, lineWidth);
+			}
+		}
+		return width;
+	}
+	
+	/**
+	 * Gets the vertical distance between lines of text.
+	 * @return The line height, in pixels
+	 */
+	public int getLineHeight () {
+		return lineHeight;
+	}
+	
+	/**
+	 * Gets the sprite holding the glyphs of this font.
+	 * @return The glyph sprite
+	 */
+	public Sprite getGlyphs () {
+		return glyphs;
+	}
+	
+	/**
+	 * Gets the layout of the given text, laying it out and caching it if it is not cached.
+	 */
+	private int[] getLayout (String text) {
+		int[] layout = layouts.get (text);
+		if (layout != null) {
+			return layout;
+		}
+		int count = 0;
+		for (int i = 0; i < text.length (); i ++) {
+			int frame = text.charAt (i) - firstChar;
+			if (frame >= 0 && frame < advances.length) {
+				count ++;
+			}
+		}
+		layout = new int[count * 3];
+		int index = 0;
+		int x = 0;
+		int y = 0;
+		for (int i = 0; i < text.length (); i ++) {
+			char c = text.charAt (i);
+			if (c == '\n') {
+				x = 0;
+				y += lineHeight;
+				continue;
+			}
+			int frame = c - firstChar;
+			if (frame >= 0 && frame < advances.length) {
+				layout [index ++] = frame;
+				layout [index ++] = x;
+				layout [index ++] = y;
+				x += advances [frame];
+			}
+		}
+		layouts.put (text, layout);
+		return layout;
+	}
+}
@@ -0,0 +1,137 @@
+package engine;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the bit-packed fields of a CMF map. Fields are stored most significant bit first, and are not aligned to byte boundaries.
+ * Bits are read from a memory-mapped buffer into a 64-bit register, refilled 32 bits at a time, so that each field is extracted with a single shift and mask.
+ * @author nathan
+ *
+ */
+public class CMFReader {
+	
+	/**
+	 * The bytes being read
+	 */
+	private final ByteBuffer data;
+	/**
+	 * Holds bits read from the buffer but not yet returned; only the lowest bitCount bits are unread
+	 */
+	private long register = 0;
+	/**
+	 * The number of unread bits in the register
+	 */
+	private int bitCount = 0;
+	
+	/**
+	 * Constructs a new CMFReader which reads the file at the given filepath. The file is memory-mapped rather than read up front.
+	 * @param filepath The filepath of the CMF file
+	 * @throws IOException If the file could not be opened or mapped
+	 */
+	public CMFReader (String filepath) throws IOException {
+		RandomAccessFile file = new RandomAccessFile (filepath, "r");
+		try {
+			FileChannel channel = file.getChannel ();
+			data = channel.map (FileChannel.MapMode.READ_ONLY, 0, channel.size ());
+		} finally {
+			file.close ();
+		}
+	}
+	
+	/**
+	 * Constructs a new CMFReader which reads the remaining bytes of the given buffer.
+	 * @param data The buffer to read; its position is advanced as it is read
+	 */
+	public CMFReader (ByteBuffer data) {
+		this.data = data;
+	}
+	
+	/**
+	 * Reads the next field of the given number of bits. Bits past the end of the data are read as zeros.
+	 * @param num The number of bits to read, from 0 to 32
+	 * @return The bits read, as an unsigned value; a 32-bit field may be negative
+	 */
+	public int read (int num) {
+		if (bitCount < num) {
+			refill ();
+		}
+		if (bitCount < num) {
+			register <<= num - bitCount;
+			bitCount = num;
+		}
+		bitCount -= num;
+		return (int)((register >>> bitCount) & ((1L << num) - 1));
+	}
+	
+	/**
+	 * Reads bytes up to the given terminator, and skips the terminator. When the reader is at a byte boundary, the buffer is scanned for the terminator directly instead of reading a byte at a time.
+	 * @param terminator The character which ends the string
+	 * @return The bytes read as a string of 8-bit characters, not including the terminator
+	 */
+	public String readString (char terminator) {
+		if (bitCount % 8 != 0) {
+			StringBuilder result = new StringBuilder ();
+			int c = read (8);
+			while (c != terminator) {
+				result.append ((char)c);
+				if (!data.hasRemaining () && bitCount < 8) {
+					break;
+				}
+				c = read (8);
+			}
+			return result.toString ();
+		}
+		//Put the whole bytes still in the register back, then scan the buffer from there
+		int start = data.position () - bitCount / 8;
+		register = 0;
+		bitCount = 0;
+		int end = start;
+		while (end < data.limit () && data.get (end) != terminator) {
+			end ++;
+		}
+		byte[] bytes = new byte[end - start];
+		data.position (start);
+		data.get (bytes);
+		data.position (Math.min (end + 1, data.limit ()));
+		return new String (bytes, StandardCharsets.ISO_8859_1);
+	}
+	
+	/**
+	 * Gets a view of the given bytes of the data, without changing what is read next.
+	 * @param offset The offset of the first byte, from the start of the data
+	 * @param length The number of bytes
+	 * @return The bytes, as a buffer positioned at the first byte
+	 */
+	public ByteBuffer slice (int offset, int length) {
+		ByteBuffer section = data.duplicate ();
+		section.limit (offset + length);
+		section.position (offset);
+		return section.slice ();
+	}
+	
+	/**
+	 * Gets the number of bits which have been read so far.
+	 * @return The bit position of the next field
+	 */
+	public long getBitPosition () {
+		return (long)data.position () * 8 - bitCount;
+	}
+	
+	/**
+	 * Loads the register with as many whole bytes as it can hold without losing unread bits.
+	 */
+	private void refill () {
+		if (bitCount <= 32 && data.remaining () >= 4) {
+			register = (register << 32) | (data.getInt () & 0xFFFFFFFFL);
+			bitCount += 32;
+		}
+		while (bitCount <= 56 && data.hasRemaining ()) {
+			register = (register << 8) | (data.get () & 0xFF);
+			bitCount += 8;
+		}
+	}
+}
@@ -0,0 +1,119 @@
+package engine;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Writes rooms as chunked CMF maps, which can be loaded a region at a time.
+ * A chunked map starts like a legacy map, with "CMF", the version, the layer count, the size of the room, the number of tiles and objects used, and the tileset and object name lists. The tiles used and the object placements follow with every field 16 bits wide, so the rest of the file is byte-aligned.
+ * The tiles follow as the chunk size, then a directory with the offset and length of each chunk, layer by layer, then the chunks themselves. Each chunk is one layer of a square of tiles, compressed with a Deflater, so chunks can be decoded independently, in parallel or on demand.
+ * All values are big-endian.
+ * @author nathan
+ *
+ */
+public class CMFWriter {
+	
+	/**
+	 * CMFWriter cannot be constructed.
+	 */
+	private CMFWriter () {
+		
+	}
+	
+	/**
+	 * Writes the loaded map of the given room to a file, including any tiles changed since it was loaded. Objects are written where they were placed in the map, not where they are now.
+	 * @param room The room to write
+	 * @param path The filepath to write the map to
+	 * @throws IOException If the file could not be written
+	 */
+	public static void write (Room room, String path) throws IOException {
+		if (room.getTilesetNames () == null) {
+			throw new IllegalArgumentException ("The room has no map loaded");
+		}
+		int layerCount = room.getLayerCount ();
+		int width = room.getWidth ();
+		int height = room.getHeight ();
+		int chunkTiles = ChunkStreamer.CHUNK_TILES;
+		int chunksWide = (width + chunkTiles - 1) / chunkTiles;
+		int chunksHigh = (height + chunkTiles - 1) / chunkTiles;
+		int chunkCount = chunksWide * chunksHigh;
+		//Compress every chunk first, so the directory can be written before them
+		byte[][] chunks = new byte[layerCount * chunkCount][];
+		short[] tiles = new short[chunkTiles * chunkTiles];
+		for (int layer = 0; layer < layerCount; layer ++) {
+			for (int cy = 0; cy < chunksHigh; cy ++) {
+				for (int cx = 0; cx < chunksWide; cx ++) {
+					for (int i = 0; i < chunkTiles; i ++) {
+						int x = cx * chunkTiles + i;
+						for (int j = 0; j < chunkTiles; j ++) {
+							int y = cy * chunkTiles + j;
+							tiles [i * chunkTiles + j] = x < width && y < height ? room.getTile (layer, x, y) : 0;
+						}
+					}
+					chunks [layer * chunkCount + cy * chunksWide + cx] = ChunkStreamer.compress (tiles);
+				}
+			}
+		}
+		ByteArrayOutputStream headerBytes = new ByteArrayOutputStream ();
+		DataOutputStream header = new DataOutputStream (headerBytes);
+		short[] tilesUsed = room.getTilesUsed ();
+		int[] placements = room.getObjectPlacements ();
+		String[] objectList = room.getObjectList ();
+		header.writeBytes ("CMF");
+		header.writeByte (Room.CHUNKED_VERSION);
+		header.writeByte (layerCount);
+		header.writeShort (width);
+		header.writeShort (height);
+		header.writeShort (tilesUsed.length);
+		header.writeInt (placements.length / 3);
+		header.writeBytes (room.getTilesetNames () + ";");
+		header.writeBytes (String.join (",", objectList) + ";");
+		for (int i = 0; i < tilesUsed.length; i ++) {
+			header.writeShort (tilesUsed [i]);
+		}
+		for (int i = 0; i < placements.length; i ++) {
+			header.writeShort (placements [i]);
+		}
+		header.writeShort (chunkTiles);
+		header.flush ();
+		DataOutputStream out = new DataOutputStream (new BufferedOutputStream (new FileOutputStream (path)));
+		try {
+			headerBytes.writeTo (out);
+			int offset = headerBytes.size () + chunks.length * 8;
+			for (int i = 0; i < chunks.length; i ++) {
+				out.writeInt (offset);
+				out.writeInt (chunks [i].length);
+				offset += chunks [i].length;
+			}
+			for (int i = 0; i < chunks.length; i ++) {
+				out.write (chunks [i]);
+			}
+		} finally {
+			out.close ();
+		}
+	}
+	
+	/**
+	 * Converts a map to a chunked map from the command line. The first argument is the filepath of the map to convert, and the second is the filepath to write the chunked map to.
+	 * @param args The command line arguments
+	 */
+	public static void main (String[] args) {
+		if (args.length != 2) {
+			System.out.println ("Usage: CMFWriter <map file> <chunked map file>");
+			return;
+		}
+		Room room = new Room ();
+		try {
+			room.loadRoom (args [0], false);
+			write (room, args [1]);
+		} catch (FileNotFoundException e) {
+			System.out.println ("Error: " + args [0] + " could not be found");
+		} catch (IOException e) {
+			e.printStackTrace ();
+		}
+	}
+}
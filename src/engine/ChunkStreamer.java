@@ -0,0 +1,488 @@
+package engine;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Stores the tiles of a streaming room as square chunks, and keeps only the chunks around the view decoded.
+ * Each layer of each chunk is kept as a compressed section. Chunks within a radius of the view are decompressed on a background thread as the view moves, and chunks which fall further behind are evicted, so the decoded tiles in memory depend on the view distance rather than the size of the room.
+ * The objects placed in a chunk are created when it is loaded near the view. Objects are tracked by where they are now rather than where they were placed, and are retired once they are outside the area chunks are kept loaded in, so an object which has walked into the view stays alive when the chunk it was placed in is evicted.
+ * A retired object is created again, in its original state, when the chunk it was placed in is next loaded; an object which is still alive is never created a second time.
+ * A tile in a chunk which is not loaded is decoded on the spot when it is requested, so tiles can always be read, e.g. for collisions far from the view.
+ * @author nathan
+ *
+ */
+public class ChunkStreamer {
+	
+	/**
+	 * The width and height of each chunk, in tiles
+	 */
+	public static final int CHUNK_TILES = 64;
+	/**
+	 * The number of chunks kept loaded past the edges of the view by default
+	 */
+	public static final int DEFAULT_RADIUS = 1;
+	
+	/**
+	 * The thread which decodes chunks in the background
+	 */
+	private static ExecutorService worker = Executors.newSingleThreadExecutor (new ThreadFactory () {
+		@Override
+		public Thread newThread (Runnable task) {
+			Thread thread = new Thread (task, "ChunkStreamer");
+			thread.setDaemon (true);
+			return thread;
+		}
+	});
+	
+	/**
+	 * The room whose tiles are streamed
+	 */
+	private Room room;
+	/**
+	 * The number of tile layers
+	 */
+	private final int layerCount;
+	/**
+	 * The width of the room, in tiles
+	 */
+	private final int width;
+	/**
+	 * The height of the room, in tiles
+	 */
+	private final int height;
+	/**
+	 * The number of chunks across the room
+	 */
+	private final int chunksWide;
+	/**
+	 * The number of chunks down the room
+	 */
+	private final int chunksHigh;
+	/**
+	 * The compressed tiles of each layer of each chunk, indexed by layer then chunk
+	 */
+	private ByteBuffer[][] sections;
+	/**
+	 * The objects placed in each chunk, as an object index followed by the tile coordinates of each object
+	 */
+	private ArrayList<ArrayList<int[]>> placements;
+	/**
+	 * The objects which are alive, by the placement they were created from
+	 */
+	private HashMap<int[], GameObject> live = new HashMap<int[], GameObject> ();
+	/**
+	 * Counts the changes written back to each chunk's sections, so that decodes started before a change are discarded
+	 */
+	private int[] versions;
+	/**
+	 * The decoded chunks, by chunk index
+	 */
+	private ConcurrentHashMap<Integer, Chunk> loaded = new ConcurrentHashMap<Integer, Chunk> ();
+	/**
+	 * The chunks being decoded in the background, by chunk index
+	 */
+	private ConcurrentHashMap<Integer, Future<Chunk>> pending = new ConcurrentHashMap<Integer, Future<Chunk>> ();
+	/**
+	 * The number of chunks kept loaded past the edges of the view
+	 */
+	private int radius = DEFAULT_RADIUS;
+	
+	/**
+	 * Constructs a new ChunkStreamer for a room of the given size, with no tiles.
+	 * @param room The room whose tiles are streamed
+	 * @param layerCount The number of tile layers
+	 * @param width The width of the room, in tiles
+	 * @param height The height of the room, in tiles
+	 */
+	public ChunkStreamer (Room room, int layerCount, int width, int height) {
+		this.room = room;
+		this.layerCount = layerCount;
+		this.width = width;
+		this.height = height;
+		chunksWide = (width + CHUNK_TILES - 1) / CHUNK_TILES;
+		chunksHigh = (height + CHUNK_TILES - 1) / CHUNK_TILES;
+		sections = new ByteBuffer[layerCount][chunksWide * chunksHigh];
+		placements = new ArrayList<ArrayList<int[]>> ();
+		for (int i = 0; i < chunksWide * chunksHigh; i ++) {
+			placements.add (new ArrayList<int[]> ());
+		}
+		versions = new int[chunksWide * chunksHigh];
+	}
+	
+	/**
+	 * Splits a fully decoded layer into chunks and compresses them.
+	 * @param layer The index of the layer
+	 * @param tiles The tiles of the layer, indexed by x then y
+	 */
+	public void setLayer (int layer, short[][] tiles) {
+		short[] chunkTiles = new short[CHUNK_TILES * CHUNK_TILES];
+		for (int cx = 0; cx < chunksWide; cx ++) {
+			for (int cy = 0; cy < chunksHigh; cy ++) {
+				for (int i = 0; i < CHUNK_TILES; i ++) {
+					int x = cx * CHUNK_TILES + i;
+					for (int j = 0; j < CHUNK_TILES; j ++) {
+						int y = cy * CHUNK_TILES + j;
+						chunkTiles [i * CHUNK_TILES + j] = x < width && y < height ? tiles [x][y] : 0;
+					}
+				}
+				sections [layer][cy * chunksWide + cx] = ByteBuffer.wrap (compress (chunkTiles));
+			}
+		}
+	}
+	
+	/**
+	 * Sets the compressed tiles of one layer of a chunk directly, e.g. from a file which is already split into chunks.
+	 * @param layer The index of the layer
+	 * @param chunk The index of the chunk, counting across then down
+	 * @param section The tiles of the layer in the chunk, as written by compress
+	 */
+	public void setSection (int layer, int chunk, ByteBuffer section) {
+		sections [layer][chunk] = section;
+	}
+	
+	/**
+	 * Moves this ChunkStreamer to another room, which creates the objects of the chunks loaded from now on. Used when a map loaded into a scratch room is swapped into the room in use.
+	 * @param room The room to stream the tiles of
+	 */
+	void setRoom (Room room) {
+		this.room = room;
+	}
+	
+	/**
+	 * Places an object in the room, to be created while the chunk it is in is loaded.
+	 * @param objectId The index of the object's type in the room's object list
+	 * @param x The x-coordinate of the object, in tiles
+	 * @param y The y-coordinate of the object, in tiles
+	 */
+	public void addObject (int objectId, int x, int y) {
+		placements.get (getChunkIndex (x, y)).add (new int[] {objectId, x, y});
+	}
+	
+	/**
+	 * Sets the number of chunks kept loaded past the edges of the view. Chunks are evicted once they are one chunk further away than this.
+	 * @param radius The radius to use, in chunks
+	 */
+	public void setRadius (int radius) {
+		this.radius = radius;
+	}
+	
+	/**
+	 * Gets the number of chunks kept loaded past the edges of the view.
+	 * @return The radius, in chunks
+	 */
+	public int getRadius () {
+		return radius;
+	}
+	
+	/**
+	 * Gets the number of chunks currently decoded.
+	 * @return The number of loaded chunks
+	 */
+	public int getLoadedCount () {
+		return loaded.size ();
+	}
+	
+	/**
+	 * Gets the number of tile layers.
+	 * @return The number of layers
+	 */
+	public int getLayerCount () {
+		return layerCount;
+	}
+	
+	/**
+	 * Gets the tile at the given position, decoding its chunk if it is not loaded.
+	 * @param layer The layer of the tile
+	 * @param x The x-coordinate of the tile
+	 * @param y The y-coordinate of the tile
+	 * @return The numerical tile ID
+	 */
+	public short getTile (int layer, int x, int y) {
+		Chunk chunk = getChunk (getChunkIndex (x, y));
+		return chunk.tiles [layer][(x % CHUNK_TILES) * CHUNK_TILES + y % CHUNK_TILES];
+	}
+	
+	/**
+	 * Sets the tile at the given position, decoding its chunk if it is not loaded. The change is kept when the chunk is evicted.
+	 * @param layer The layer of the tile
+	 * @param x The x-coordinate of the tile
+	 * @param y The y-coordinate of the tile
+	 * @param id The numerical tile ID to use
+	 */
+	public void setTile (int layer, int x, int y, short id) {
+		Chunk chunk = getChunk (getChunkIndex (x, y));
+		chunk.tiles [layer][(x % CHUNK_TILES) * CHUNK_TILES + y % CHUNK_TILES] = id;
+		chunk.changed [layer] = true;
+	}
+	
+	/**
+	 * Loads the chunks around the given view, and evicts those which are too far from it. Chunks are decoded in the background, and their objects are created on a later call once they are ready. Objects which have moved outside of the area kept loaded are retired.
+	 * Creates and retires GameObjects, so should be called from the game logic thread.
+	 * @param viewX The x-coordinate of the view, in pixels
+	 * @param viewY The y-coordinate of the view, in pixels
+	 * @param viewWidth The width of the view, in pixels
+	 * @param viewHeight The height of the view, in pixels
+	 */
+	public void update (int viewX, int viewY, int viewWidth, int viewHeight) {
+		int chunkSize = CHUNK_TILES * 16;
+		int x1 = Math.floorDiv (viewX, chunkSize) - radius;
+		int y1 = Math.floorDiv (viewY, chunkSize) - radius;
+		int x2 = Math.floorDiv (viewX + viewWidth - 1, chunkSize) + radius;
+		int y2 = Math.floorDiv (viewY + viewHeight - 1, chunkSize) + radius;
+		//Install the chunks which have finished decoding
+		Iterator<Map.Entry<Integer, Future<Chunk>>> pendingIter = pending.entrySet ().iterator ();
+		while (pendingIter.hasNext ()) {
+			Map.Entry<Integer, Future<Chunk>> entry = pendingIter.next ();
+			if (!entry.getValue ().isDone ()) {
+				continue;
+			}
+			pendingIter.remove ();
+			try {
+				Chunk chunk = entry.getValue ().get ();
+				if (chunk.version == versions [chunk.index]) {
+					loaded.putIfAbsent (chunk.index, chunk);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread ().interrupt ();
+			} catch (ExecutionException e) {
+				e.getCause ().printStackTrace ();
+			}
+		}
+		//Evict the chunks which are more than a chunk outside of the loading area
+		Iterator<Chunk> loadedIter = loaded.values ().iterator ();
+		while (loadedIter.hasNext ()) {
+			Chunk chunk = loadedIter.next ();
+			int cx = chunk.index % chunksWide;
+			int cy = chunk.index / chunksWide;
+			if (cx < x1 - 1 || cx > x2 + 1 || cy < y1 - 1 || cy > y2 + 1) {
+				evict (chunk);
+				loadedIter.remove ();
+			}
+		}
+		//Retire the objects which are now in a chunk that would be evicted, wherever they were placed
+		Iterator<GameObject> liveIter = live.values ().iterator ();
+		while (liveIter.hasNext ()) {
+			GameObject obj = liveIter.next ();
+			int cx = Math.floorDiv ((int)Math.floor (obj.getX ()), chunkSize);
+			int cy = Math.floorDiv ((int)Math.floor (obj.getY ()), chunkSize);
+			if (cx < x1 - 1 || cx > x2 + 1 || cy < y1 - 1 || cy > y2 + 1) {
+				liveIter.remove ();
+				obj.forget ();
+			}
+		}
+		//Load the chunks in the loading area, and create the objects of those which are loaded
+		for (int cx = Math.max (x1, 0); cx <= Math.min (x2, chunksWide - 1); cx ++) {
+			for (int cy = Math.max (y1, 0); cy <= Math.min (y2, chunksHigh - 1); cy ++) {
+				final int index = cy * chunksWide + cx;
+				Chunk chunk = loaded.get (index);
+				if (chunk == null) {
+					if (!pending.containsKey (index)) {
+						pending.put (index, worker.submit (new Callable<Chunk> () {
+							@Override
+							public Chunk call () throws DataFormatException {
+								return decode (index);
+							}
+						}));
+					}
+				} else if (!chunk.objectsCreated) {
+					createObjects (chunk);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Retires every object which is alive and evicts every loaded chunk.
+	 */
+	public void unloadAll () {
+		Iterator<Chunk> iter = loaded.values ().iterator ();
+		while (iter.hasNext ()) {
+			Chunk chunk = iter.next ();
+			evict (chunk);
+			iter.remove ();
+		}
+		pending.clear ();
+		Iterator<GameObject> liveIter = live.values ().iterator ();
+		while (liveIter.hasNext ()) {
+			liveIter.next ().forget ();
+		}
+		live.clear ();
+	}
+	
+	/**
+	 * Compresses the tiles of one layer of a chunk.
+	 * @param tiles The tiles to compress, indexed by x * CHUNK_TILES + y
+	 * @return The compressed tiles
+	 */
+	public static byte[] compress (short[] tiles) {
+		ByteBuffer raw = ByteBuffer.allocate (tiles.length * 2);
+		raw.asShortBuffer ().put (tiles);
+		Deflater deflater = new Deflater ();
+		deflater.setInput (raw.array ());
+		deflater.finish ();
+		ByteArrayOutputStream result = new ByteArrayOutputStream ();
+		byte[] buffer = new byte[1024];
+		while (!deflater.finished ()) {
+			result.write (buffer, 0, deflater.deflate (buffer));
+		}
+		deflater.end ();
+		return result.toByteArray ();
+	}
+	
+	/**
+	 * Decompresses the tiles of one layer of a chunk.
+	 * @param section The compressed tiles, as written by compress; its position is not changed
+	 * @param tiles The array to decompress the tiles into, indexed by x * CHUNK_TILES + y
+	 * @throws DataFormatException If the section is corrupted
+	 */
+	public static void decompress (ByteBuffer section, short[] tiles) throws DataFormatException {
+		byte[] input = new byte[section.remaining ()];
+		section.duplicate ().get (input);
+		Inflater inflater = new Inflater ();
+		inflater.setInput (input);
+		byte[] raw = new byte[tiles.length * 2];
+		int count = 0;
+		while (count < raw.length && !inflater.finished ()) {
+			int inflated = inflater.inflate (raw, count, raw.length - count);
+			if (inflated == 0 && (inflater.needsInput () || inflater.needsDictionary ())) {
+				break;
+			}
+			count += inflated;
+		}
+		inflater.end ();
+		ByteBuffer.wrap (raw).asShortBuffer ().get (tiles);
+	}
+	
+	/**
+	 * Gets the loaded chunk with the given index, decoding it on this thread if it is not loaded.
+	 * Like the chunks decoded in the background, a chunk whose sections were written back while it was being decoded is discarded and decoded again.
+	 */
+	private Chunk getChunk (int index) {
+		while (true) {
+			Chunk chunk = loaded.get (index);
+			if (chunk != null) {
+				return chunk;
+			}
+			try {
+				chunk = decode (index);
+			} catch (DataFormatException e) {
+				throw new IllegalStateException ("Chunk " + index + " of the room is corrupted", e);
+			}
+			if (chunk.version != versions [index]) {
+				continue;
+			}
+			Chunk existing = loaded.putIfAbsent (index, chunk);
+			if (existing != null) {
+				return existing;
+			}
+			//A chunk is written back before it is removed, so an eviction which slipped in before the install has changed the version by now
+			if (chunk.version == versions [index]) {
+				return chunk;
+			}
+			loaded.remove (index, chunk);
+		}
+	}
+	
+	/**
+	 * Decodes every layer of the chunk with the given index.
+	 */
+	private Chunk decode (int index) throws DataFormatException {
+		Chunk chunk = new Chunk (index, versions [index], layerCount);
+		for (int layer = 0; layer < layerCount; layer ++) {
+			if (sections [layer][index] != null) {
+				decompress (sections [layer][index], chunk.tiles [layer]);
+			}
+		}
+		return chunk;
+	}
+	
+	/**
+	 * Writes back any layers of an evicted chunk which were changed. Its objects are left alone, since they are retired by where they are now.
+	 * Called before the chunk is removed from the loaded chunks, so that a decode which installs the chunk again sees its new version.
+	 */
+	private void evict (Chunk chunk) {
+		for (int layer = 0; layer < layerCount; layer ++) {
+			if (chunk.changed [layer]) {
+				sections [layer][chunk.index] = ByteBuffer.wrap (compress (chunk.tiles [layer]));
+				versions [chunk.index] ++;
+			}
+		}
+	}
+	
+	/**
+	 * Creates the objects placed in the given chunk, except those which are still alive.
+	 */
+	private void createObjects (Chunk chunk) {
+		ArrayList<int[]> chunkPlacements = placements.get (chunk.index);
+		chunk.objectsCreated = true;
+		for (int i = 0; i < chunkPlacements.size (); i ++) {
+			int[] placement = chunkPlacements.get (i);
+			if (live.containsKey (placement)) {
+				continue;
+			}
+			GameObject obj = room.createObject (placement [0], placement [1], placement [2]);
+			if (obj != null) {
+				live.put (placement, obj);
+			}
+		}
+	}
+	
+	/**
+	 * Gets the index of the chunk containing the given tile.
+	 */
+	private int getChunkIndex (int x, int y) {
+		return (y / CHUNK_TILES) * chunksWide + x / CHUNK_TILES;
+	}
+	
+	/**
+	 * The decoded tiles of one chunk.
+	 */
+	private static class Chunk {
+		
+		/**
+		 * The index of this chunk, counting across then down
+		 */
+		private final int index;
+		/**
+		 * The version of the chunk's sections this chunk was decoded from
+		 */
+		private final int version;
+		/**
+		 * The tiles of each layer, indexed by x * CHUNK_TILES + y within the chunk
+		 */
+		private final short[][] tiles;
+		/**
+		 * Whether each layer has been changed since it was decoded
+		 */
+		private final boolean[] changed;
+		/**
+		 * Whether the objects placed in this chunk have been created since it was loaded
+		 */
+		private boolean objectsCreated;
+		
+		/**
+		 * Constructs a new, empty Chunk.
+		 */
+		public Chunk (int index, int version, int layerCount) {
+			this.index = index;
+			this.version = version;
+			tiles = new short[layerCount][CHUNK_TILES * CHUNK_TILES];
+			changed = new boolean[layerCount];
+		}
+	}
+}
@@ -0,0 +1,494 @@
+package engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A Dijkstra map over the tiles of a Room which points every reachable tile towards a single goal tile.
+ * The field is shared by any number of GameObjects, each of which can read its next step in constant time.
+ * It is rebuilt in full when the goal tile changes (or after invalidate() is called), optionally on a background thread; a new goal changes the distance of every reachable tile, so there is nothing to reuse but the buffers.
+ * When only some tiles change, the field is repaired instead: only the tiles whose paths ran through a changed tile are searched again.
+ * Tile weights are taken from the cost of each tile's TileData; solid tiles are never entered.
+ * @author nathan
+ *
+ */
+public class FlowField {
+	
+	/**
+	 * The direction value used for the goal tile and for tiles which cannot reach the goal
+	 */
+	public static final int NONE = -1;
+	/**
+	 * The x offsets for each direction, in the order right, down, left, up
+	 */
+	public static final int[] DIRECTION_X = new int[] {1, 0, -1, 0};
+	/**
+	 * The y offsets for each direction, in the order right, down, left, up
+	 */
+	public static final int[] DIRECTION_Y = new int[] {0, 1, 0, -1};
+	/**
+	 * The distance value used for tiles which cannot reach the goal
+	 */
+	public static final int UNREACHABLE = Integer.MAX_VALUE;
+	
+	/**
+	 * The room this field is built over
+	 */
+	private Room room;
+	/**
+	 * The most recently completed field; read by the agents
+	 */
+	private volatile Field current;
+	/**
+	 * The field which the next rebuild is written to before being swapped with current
+	 */
+	private Field spare;
+	/**
+	 * The queue used for rebuilding the field
+	 */
+	private PathQueue queue;
+	/**
+	 * Held while the field is being rebuilt
+	 */
+	private final Object buildLock = new Object ();
+	/**
+	 * Whether the room's tiles have changed since the current field was built
+	 */
+	private volatile boolean invalid;
+	/**
+	 * The tiles which have changed since the current field was built, as indices into the field; guarded by itself
+	 */
+	private ArrayList<Integer> changedTiles = new ArrayList<Integer> ();
+	/**
+	 * The background thread used by setGoalAsync; null until it is first needed
+	 */
+	private Thread worker;
+	/**
+	 * Whether a goal is waiting to be picked up by the background thread
+	 */
+	private boolean pending;
+	/**
+	 * The x-coordinate of the goal waiting to be built by the background thread
+	 */
+	private int pendingX;
+	/**
+	 * The y-coordinate of the goal waiting to be built by the background thread
+	 */
+	private int pendingY;
+	/**
+	 * Whether dispose has been called; a disposed field is never built again
+	 */
+	private volatile boolean disposed;
+	
+	/**
+	 * A completed distance and direction map towards one goal tile
+	 * @author nathan
+	 *
+	 */
+	private static class Field {
+		
+		private int width;
+		
+		private int height;
+		
+		private int goalX;
+		
+		private int goalY;
+		
+		private int[] distance;
+		
+		private byte[] direction;
+		
+		public Field (int width, int height) {
+			this.width = width;
+			this.height = height;
+			distance = new int[width * height];
+			direction = new byte[width * height];
+			goalX = -1;
+			goalY = -1;
+		}
+	}
+	
+	/**
+	 * Constructs a new FlowField over the given room. The field has no goal until setGoal or setGoalAsync is called.
+	 * @param room The room to build the field from
+	 */
+	public FlowField (Room room) {
+		this.room = room;
+		queue = new PathQueue (room.getWidth () * room.getHeight ());
+	}
+	
+	/**
+	 * Points the field at the given goal tile, rebuilding it on the calling thread if the goal tile has changed, or repairing it if only some tiles have changed.
+	 * @param tileX The x-coordinate of the goal, in tiles
+	 * @param tileY The y-coordinate of the goal, in tiles
+	 */
+	public void setGoal (int tileX, int tileY) {
+		Field working = current;
+		if (!invalid && !hasChangedTiles () && working != null && working.goalX == tileX && working.goalY == tileY) {
+			return;
+		}
+		synchronized (buildLock) {
+			if (disposed) {
+				return;
+			}
+			working = current;
+			if (!invalid && working != null && working.goalX == tileX && working.goalY == tileY && working.width == room.getWidth () && working.height == room.getHeight ()) {
+				repair (working);
+			} else {
+				build (tileX, tileY);
+			}
+		}
+	}
+	
+	/**
+	 * Points the field at the given goal tile, rebuilding it on a background thread if the goal tile has changed.
+	 * The previous field stays readable until the new one is complete. Only the most recent pending goal is built.
+	 * @param tileX The x-coordinate of the goal, in tiles
+	 * @param tileY The y-coordinate of the goal, in tiles
+	 */
+	public synchronized void setGoalAsync (int tileX, int tileY) {
+		if (disposed) {
+			return;
+		}
+		Field working = current;
+		if (!invalid && !pending && !hasChangedTiles () && working != null && working.goalX == tileX && working.goalY == tileY) {
+			return;
+		}
+		pendingX = tileX;
+		pendingY = tileY;
+		pending = true;
+		if (worker == null) {
+			worker = new Thread (new Runnable () {
+				@Override
+				public void run () {
+					while (true) {
+						int goalX;
+						int goalY;
+						synchronized (FlowField.this) {
+							while (!pending && !disposed) {
+								try {
+									FlowField.this.wait ();
+								} catch (InterruptedException e) {
+									//Spurious wakeups are handled by the loop condition
+								}
+							}
+							if (disposed) {
+								return;
+							}
+							goalX = pendingX;
+							goalY = pendingY;
+							pending = false;
+						}
+						setGoal (goalX, goalY);
+					}
+				}
+			}, "FlowField");
+			worker.setDaemon (true);
+			worker.start ();
+		}
+		notifyAll ();
+	}
+	
+	/**
+	 * Stops the background thread started by setGoalAsync, if any, and releases the field's buffers. A build already in progress is finished first.
+	 * The field reads as if no field had been built from then on, and setGoal and setGoalAsync do nothing. Room.removeFlowField calls this.
+	 */
+	public void dispose () {
+		synchronized (this) {
+			disposed = true;
+			pending = false;
+			worker = null;
+			notifyAll ();
+		}
+		synchronized (buildLock) {
+			current = null;
+			spare = null;
+			queue = null;
+		}
+	}
+	
+	/**
+	 * Marks the field as out of date, e.g. after the room's tiles change; the next call to setGoal or setGoalAsync will rebuild it even if the goal is unchanged.
+	 */
+	public void invalidate () {
+		invalid = true;
+	}
+	
+	/**
+	 * Marks a single tile as changed, e.g. after it becomes solid or its cost changes; the next call to setGoal or setGoalAsync will repair the field around it even if the goal is unchanged.
+	 * @param tileX The x-coordinate of the tile, in tiles
+	 * @param tileY The y-coordinate of the tile, in tiles
+	 */
+	public void invalidate (int tileX, int tileY) {
+		if (tileX < 0 || tileY < 0 || tileX >= room.getWidth () || tileY >= room.getHeight ()) {
+			return;
+		}
+		synchronized (changedTiles) {
+			changedTiles.add (tileY * room.getWidth () + tileX);
+		}
+	}
+	
+	/**
+	 * Gets the direction to step in from the given tile to get closer to the goal.
+	 * @param tileX The x-coordinate of the tile, in tiles
+	 * @param tileY The y-coordinate of the tile, in tiles
+	 * @return An index into DIRECTION_X and DIRECTION_Y; NONE if the tile is the goal, cannot reach it, or no field has been built
+	 */
+	public int getDirection (int tileX, int tileY) {
+		Field working = current;
+		if (working == null || tileX < 0 || tileY < 0 || tileX >= working.width || tileY >= working.height) {
+			return NONE;
+		}
+		return working.direction [tileY * working.width + tileX];
+	}
+	
+	/**
+	 * Gets the direction to step in from the tile containing the given point to get closer to the goal.
+	 * @param x The x-coordinate of the point, in pixels
+	 * @param y The y-coordinate of the point, in pixels
+	 * @return An index into DIRECTION_X and DIRECTION_Y; NONE if the tile is the goal, cannot reach it, or no field has been built
+	 */
+	public int getDirectionAt (double x, double y) {
+		return getDirection ((int)Math.floor (x / 16), (int)Math.floor (y / 16));
+	}
+	
+	/**
+	 * Gets the x-coordinate of the next tile on the way to the goal from the given tile.
+	 * @param tileX The x-coordinate of the tile, in tiles
+	 * @param tileY The y-coordinate of the tile, in tiles
+	 * @return The x-coordinate of the next tile; tileX if there is no next step
+	 */
+	public int getNextX (int tileX, int tileY) {
+		int direction = getDirection (tileX, tileY);
+		return direction == NONE ? tileX : tileX + DIRECTION_X [direction];
+	}
+	
+	/**
+	 * Gets the y-coordinate of the next tile on the way to the goal from the given tile.
+	 * @param tileX The x-coordinate of the tile, in tiles
+	 * @param tileY The y-coordinate of the tile, in tiles
+	 * @return The y-coordinate of the next tile; tileY if there is no next step
+	 */
+	public int getNextY (int tileX, int tileY) {
+		int direction = getDirection (tileX, tileY);
+		return direction == NONE ? tileY : tileY + DIRECTION_Y [direction];
+	}
+	
+	/**
+	 * Gets the total cost of the cheapest path from the given tile to the goal.
+	 * @param tileX The x-coordinate of the tile, in tiles
+	 * @param tileY The y-coordinate of the tile, in tiles
+	 * @return The cost of the path; UNREACHABLE if there is no path or no field has been built
+	 */
+	public int getDistance (int tileX, int tileY) {
+		Field working = current;
+		if (working == null || tileX < 0 || tileY < 0 || tileX >= working.width || tileY >= working.height) {
+			return UNREACHABLE;
+		}
+		return working.distance [tileY * working.width + tileX];
+	}
+	
+	/**
+	 * Gets the x-coordinate of the goal of the most recently completed field.
+	 * @return The goal x-coordinate, in tiles; -1 if no field has been built
+	 */
+	public int getGoalX () {
+		Field working = current;
+		return working == null ? -1 : working.goalX;
+	}
+	
+	/**
+	 * Gets the y-coordinate of the goal of the most recently completed field.
+	 * @return The goal y-coordinate, in tiles; -1 if no field has been built
+	 */
+	public int getGoalY () {
+		Field working = current;
+		return working == null ? -1 : working.goalY;
+	}
+	
+	/**
+	 * Rebuilds the spare field towards the given goal and swaps it in. Must be called while holding buildLock.
+	 * @param goalX The x-coordinate of the goal, in tiles
+	 * @param goalY The y-coordinate of the goal, in tiles
+	 */
+	private void build (int goalX, int goalY) {
+		invalid = false;
+		synchronized (changedTiles) {
+			changedTiles.clear ();
+		}
+		int width = room.getWidth ();
+		int height = room.getHeight ();
+		Field working = spare;
+		if (working == null || working.width != width || working.height != height) {
+			working = new Field (width, height);
+		}
+		int[] distance = working.distance;
+		byte[] direction = working.direction;
+		for (int i = 0; i < distance.length; i ++) {
+			distance [i] = UNREACHABLE;
+			direction [i] = NONE;
+		}
+		working.goalX = goalX;
+		working.goalY = goalY;
+		queue.clear ();
+		if (!room.isSolid (goalX, goalY)) {
+			int goal = goalY * width + goalX;
+			distance [goal] = 0;
+			queue.add (goal, 0);
+		}
+		search (working);
+		spare = current;
+		current = working;
+	}
+	
+	/**
+	 * Repairs a copy of the given field after some of its tiles have changed, and swaps it in. Must be called while holding buildLock.
+	 * The tiles whose paths to the goal ran through a changed tile are cleared and searched again, starting from the tiles around them; tiles which a changed tile now gives a cheaper path are lowered by the same search.
+	 * Falls back to a full rebuild if the goal itself changed or too many tiles changed for a repair to be worthwhile.
+	 * @param source The current field, which is left unchanged
+	 */
+	private void repair (Field source) {
+		int[] changed;
+		synchronized (changedTiles) {
+			changed = new int[changedTiles.size ()];
+			for (int i = 0; i < changed.length; i ++) {
+				changed [i] = changedTiles.get (i);
+			}
+			changedTiles.clear ();
+		}
+		if (changed.length == 0) {
+			return;
+		}
+		int width = source.width;
+		int height = source.height;
+		int goal = source.goalY * width + source.goalX;
+		if (changed.length > width * height / 16) {
+			build (source.goalX, source.goalY);
+			return;
+		}
+		for (int i = 0; i < changed.length; i ++) {
+			if (changed [i] == goal) {
+				build (source.goalX, source.goalY);
+				return;
+			}
+		}
+		Field working = spare;
+		if (working == null || working.width != width || working.height != height) {
+			working = new Field (width, height);
+		}
+		int[] distance = working.distance;
+		byte[] direction = working.direction;
+		System.arraycopy (source.distance, 0, distance, 0, distance.length);
+		System.arraycopy (source.direction, 0, direction, 0, direction.length);
+		working.goalX = source.goalX;
+		working.goalY = source.goalY;
+		//Clear the changed tiles and every tile whose path runs through one of them, following the directions backwards
+		int[] cleared = new int[16];
+		int clearedCount = 0;
+		for (int i = 0; i < changed.length; i ++) {
+			if (clearedCount == cleared.length) {
+				cleared = Arrays.copyOf (cleared, clearedCount * 2);
+			}
+			distance [changed [i]] = UNREACHABLE;
+			direction [changed [i]] = NONE;
+			cleared [clearedCount ++] = changed [i];
+		}
+		for (int i = 0; i < clearedCount; i ++) {
+			int x = cleared [i] % width;
+			int y = cleared [i] / width;
+			for (int j = 0; j < 4; j ++) {
+				int nx = x + DIRECTION_X [j];
+				int ny = y + DIRECTION_Y [j];
+				if (nx < 0 || ny < 0 || nx >= width || ny >= height) {
+					continue;
+				}
+				int neighbor = ny * width + nx;
+				//The neighbor steps towards this tile if its direction is the opposite of j
+				if (direction [neighbor] == ((j + 2) & 3)) {
+					if (clearedCount == cleared.length) {
+						cleared = Arrays.copyOf (cleared, clearedCount * 2);
+					}
+					distance [neighbor] = UNREACHABLE;
+					direction [neighbor] = NONE;
+					cleared [clearedCount ++] = neighbor;
+				}
+			}
+		}
+		//Give each cleared tile the best distance offered by the tiles around it which kept theirs, then search from there
+		queue.clear ();
+		for (int i = 0; i < clearedCount; i ++) {
+			int x = cleared [i] % width;
+			int y = cleared [i] / width;
+			if (room.isSolid (x, y)) {
+				continue;
+			}
+			for (int j = 0; j < 4; j ++) {
+				int nx = x + DIRECTION_X [j];
+				int ny = y + DIRECTION_Y [j];
+				if (room.isSolid (nx, ny)) {
+					continue;
+				}
+				int neighbor = ny * width + nx;
+				if (distance [neighbor] == UNREACHABLE) {
+					continue;
+				}
+				int cost = distance [neighbor] + room.getTileCost (nx, ny);
+				if (cost < distance [cleared [i]]) {
+					distance [cleared [i]] = cost;
+					direction [cleared [i]] = (byte)j;
+				}
+			}
+			if (distance [cleared [i]] != UNREACHABLE) {
+				queue.add (cleared [i], distance [cleared [i]]);
+			}
+		}
+		search (working);
+		spare = current;
+		current = working;
+	}
+	
+	/**
+	 * Returns true if any tiles have been marked as changed since the field was last built or repaired.
+	 */
+	private boolean hasChangedTiles () {
+		synchronized (changedTiles) {
+			return !changedTiles.isEmpty ();
+		}
+	}
+	
+	/**
+	 * Runs Dijkstra's algorithm outwards from the tiles in the queue, lowering the distance of every tile which can be reached more cheaply through them.
+	 * @param working The field to search; the queued tiles must already have their distances set
+	 */
+	private void search (Field working) {
+		int width = working.width;
+		int[] distance = working.distance;
+		byte[] direction = working.direction;
+		//Search outwards from the queued tiles; a tile's distance includes the cost of every tile entered after it
+		while (!queue.isEmpty ()) {
+			int dist = queue.peekPriority ();
+			int index = queue.poll ();
+			if (dist > distance [index]) {
+				continue;
+			}
+			int x = index % width;
+			int y = index / width;
+			int enterCost = dist + room.getTileCost (x, y);
+			for (int i = 0; i < 4; i ++) {
+				int nx = x + DIRECTION_X [i];
+				int ny = y + DIRECTION_Y [i];
+				if (room.isSolid (nx, ny)) {
+					continue;
+				}
+				int neighbor = ny * width + nx;
+				if (enterCost < distance [neighbor]) {
+					distance [neighbor] = enterCost;
+					//The neighbor steps back the opposite way to reach this tile
+					direction [neighbor] = (byte)((i + 2) & 3);
+					queue.add (neighbor, enterCost);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package engine;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Describes how the pixels of a sprite frame need to be drawn, worked out once when the frame is loaded.
+ * Opaque frames can be copied a row at a time, bitmask frames (whose pixels are all either fully opaque or fully transparent) can be copied a run of opaque pixels at a time, and only translucent frames need per-pixel blending.
+ * @author nathan
+ *
+ */
+public class FrameOpacity {
+	
+	/**
+	 * Every pixel is fully opaque
+	 */
+	public static final int OPAQUE = 0;
+	/**
+	 * Every pixel is either fully opaque or fully transparent, and at least one is transparent
+	 */
+	public static final int BITMASK = 1;
+	/**
+	 * At least one pixel is partially transparent
+	 */
+	public static final int TRANSLUCENT = 2;
+	
+	/**
+	 * The span list shared by all rows with no opaque pixels
+	 */
+	private static final int[] NO_SPANS = new int[0];
+	
+	/**
+	 * The classification of the frame; one of OPAQUE, BITMASK or TRANSLUCENT
+	 */
+	private final int type;
+	/**
+	 * For bitmask frames, the runs of opaque pixels in each row, as pairs of start (inclusive) and end (exclusive) x-coordinates; null for other frames
+	 */
+	private final int[][] spans;
+	
+	/**
+	 * Constructs a new FrameOpacity with the given type and spans.
+	 */
+	private FrameOpacity (int type, int[][] spans) {
+		this.type = type;
+		this.spans = spans;
+	}
+	
+	/**
+	 * Classifies the given frame by reading its pixels. A missing frame, e.g. from an image which could not be read, is classified as translucent, so it is never copied by spans.
+	 * @param frame The frame to classify; may be null
+	 * @return The opacity of the frame
+	 */
+	public static FrameOpacity classify (BufferedImage frame) {
+		if (frame == null) {
+			return new FrameOpacity (TRANSLUCENT, null);
+		}
+		int width = frame.getWidth ();
+		int height = frame.getHeight ();
+		return classify (frame.getRGB (0, 0, width, height, null, 0, width), width, height);
+	}
+	
+	/**
+	 * Classifies a frame from its ARGB pixels.
+	 * @param pixels The pixels of the frame, in rows from top to bottom
+	 * @param width The width of the frame
+	 * @param height The height of the frame
+	 * @return The opacity of the frame
+	 */
+	public static FrameOpacity classify (int[] pixels, int width, int height) {
+		boolean transparent = false;
+		for (int i = 0; i < width * height; i ++) {
+			int alpha = pixels [i] >>> 24;
+			if (alpha == 0) {
+				transparent = true;
+			} else if (alpha != 0xFF) {
+				return new FrameOpacity (TRANSLUCENT, null);
+			}
+		}
+		if (!transparent) {
+			return new FrameOpacity (OPAQUE, null);
+		}
+		int[][] spans = new int[height][];
+		int[] rowSpans = new int[width + 1];
+		for (int row = 0; row < height; row ++) {
+			int count = 0;
+			int index = row * width;
+			int x = 0;
+			while (x < width) {
+				while (x < width && pixels [index + x] >>> 24 == 0) {
+					x ++;
+				}
+				if (x == width) {
+					break;
+				}
+				rowSpans [count ++] = x;
+				while (x < width && pixels [index + x] >>> 24 != 0) {
+					x ++;
+				}
+				rowSpans [count ++] = x;
+			}
+			if (count == 0) {
+				spans [row] = NO_SPANS;
+			} else {
+				spans [row] = new int[count];
+				System.arraycopy (rowSpans, 0, spans [row], 0, count);
+			}
+		}
+		return new FrameOpacity (BITMASK, spans);
+	}
+	
+	/**
+	 * Gets the classification of the frame.
+	 * @return OPAQUE, BITMASK or TRANSLUCENT
+	 */
+	public int getType () {
+		return type;
+	}
+	
+	/**
+	 * Gets the runs of opaque pixels in each row of a bitmask frame.
+	 * @return The spans of each row, as pairs of start (inclusive) and end (exclusive) x-coordinates; null if the frame is not a bitmask frame
+	 */
+	public int[][] getSpans () {
+		return spans;
+	}
+}
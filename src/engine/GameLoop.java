@@ -13,7 +13,7 @@ import java.util.Random;
  *
  */
 public class GameLoop implements Runnable {
-
+	
 	/**
 	 * The maximum framerate the game can run at
 	 */
@@ -26,6 +26,10 @@ public class GameLoop implements Runnable {
 	 * The image of the input from the past GameLogic frame
 	 */
 	static private InputManager inputImage;
+	/**
+	 * The room currently in use; may be null
+	 */
+	static private Room room;
 	
 	@Override
 	public void run () {
@@ -36,7 +40,18 @@ public class GameLoop implements Runnable {
 			long startTime = System.nanoTime ();
 			//doGameLogic
 			inputImage = RenderLoop.wind.getInputImage ();
+			//Reload the room if its map changed on disk, if hot reloading is running
+			HotReloader.applyPendingRoom ();
+			//Stream in the chunks of the room around the view, and the objects placed in them
+			if (room != null) {
+				room.updateStreaming ();
+			}
 			ObjectHandler.callAll ();
+			//Record this step's frame for the render thread if rendering is deferred
+			if (RenderLoop.wind.isDeferredRendering ()) {
+				ObjectHandler.renderAll ();
+				RenderLoop.wind.publishFrame ();
+			}
 			RenderLoop.wind.resetInputBuffers ();
 			//Calculate elapsed time and time to sleep for
 			lastUpdate = System.nanoTime ();
@@ -65,4 +80,20 @@ public class GameLoop implements Runnable {
 	public static InputManager getInputImage () {
 		return inputImage;
 	}
+	
+	/**
+	 * Gets the room currently in use, which is drawn behind all GameObjects and whose view is used for drawing them.
+	 * @return The current room; null if there is none
+	 */
+	public static Room getRoom () {
+		return room;
+	}
+	
+	/**
+	 * Sets the room currently in use.
+	 * @param newRoom The room to use; may be null
+	 */
+	public static void setRoom (Room newRoom) {
+		room = newRoom;
+	}
 }
\ No newline at end of file
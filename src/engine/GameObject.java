@@ -41,6 +41,10 @@ public abstract class GameObject extends GameAPI {
 	 * The AnimationHandler object used to render this GameObject
 	 */
 	private AnimationHandler animationHandler = new AnimationHandler (null);
+	/**
+	 * The depth this GameObject is drawn at; GameObjects with a higher depth are drawn behind those with a lower depth
+	 */
+	private int depth;
 	/**
 	 * The variant of this GameObject
 	 */
@@ -49,6 +53,18 @@ public abstract class GameObject extends GameAPI {
 	 * The CollisionInfo object generated by the most recent collision check done by this GameObject
 	 */
 	private CollisionInfo lastCollision;
+	/**
+	 * The bounds this GameObject was last drawn with in dirty rendering mode, in room coordinates; null if it hasn't been drawn
+	 */
+	private Rectangle drawnBounds;
+	/**
+	 * The sprite this GameObject was last drawn with in dirty rendering mode
+	 */
+	private Sprite drawnSprite;
+	/**
+	 * The frame this GameObject was last drawn with in dirty rendering mode
+	 */
+	private int drawnFrame;
 	
 	/**
 	 * Container and utility class for GameObject variants
@@ -213,21 +229,99 @@ public abstract class GameObject extends GameAPI {
 	 */
 	public void forget () {
 		ObjectHandler.remove (this);
+		if (drawnBounds != null && RenderLoop.wind != null && RenderLoop.wind.isDirtyRendering ()) {
+			Room room = GameLoop.getRoom ();
+			int viewX = room == null ? 0 : room.getViewX ();
+			int viewY = room == null ? 0 : room.getViewY ();
+			RenderLoop.wind.markDirty (drawnBounds.x - viewX, drawnBounds.y - viewY, drawnBounds.width, drawnBounds.height);
+			drawnBounds = null;
+		}
+	}
+	
+	/**
+	 * Marks the old and new bounds of this GameObject as dirty if its position, sprite or frame has changed since it was last drawn in dirty rendering mode.
+	 * @param viewX The x-coordinate of the room view
+	 * @param viewY The y-coordinate of the room view
+	 */
+	void markChanges (int viewX, int viewY) {
+		Sprite sprite = animationHandler.getImage ();
+		int frame = animationHandler.getFrame ();
+		if (drawnBounds != null && sprite == drawnSprite && frame == drawnFrame && (int)x == drawnBounds.x && (int)y == drawnBounds.y) {
+			return;
+		}
+		if (drawnBounds != null) {
+			RenderLoop.wind.markDirty (drawnBounds.x - viewX, drawnBounds.y - viewY, drawnBounds.width, drawnBounds.height);
+		}
+		drawnSprite = sprite;
+		drawnFrame = frame;
+		if (sprite == null || frame < 0 || frame >= sprite.getFrameCount ()) {
+			drawnBounds = null;
+			return;
+		}
+		if (drawnBounds == null) {
+			drawnBounds = new Rectangle ();
+		}
+		drawnBounds.setBounds ((int)x, (int)y, sprite.getFrame (frame).getWidth (), sprite.getFrame (frame).getHeight ());
+		RenderLoop.wind.markDirty (drawnBounds.x - viewX, drawnBounds.y - viewY, drawnBounds.width, drawnBounds.height);
+	}
+	
+	/**
+	 * Runs this GameObject's logic for one game step. Called once per step by the game logic thread, before the frame is drawn, whether or not the GameObject is in view.
+	 * By default this calls draw, which is where per-step logic has traditionally been written; anything draw draws during the step is ignored, since the GameObject is drawn by renderAll. Subclasses which move their logic into an override of frameEvent are only drawn, not stepped, through draw.
+	 */
+	public void frameEvent () {
+		draw ();
 	}
 	
 	/**
 	 * Draws this GameObject at its x and y coordinates relative to the room view.
 	 */
 	public void draw () {
-		//TODO
-		animationHandler.draw (x, y);
+		Room room = GameLoop.getRoom ();
+		if (room == null) {
+			animationHandler.draw (x, y, depth);
+		} else {
+			animationHandler.draw (x - room.getViewX (), y - room.getViewY (), depth);
+		}
 	}
 	
 	/**
 	 * Draws this GameObject at its x and y coordinates relative to the screen.
 	 */
 	public void drawAbsolute () {
-		animationHandler.draw (x, y);
+		animationHandler.draw (x, y, depth);
+	}
+	
+	/**
+	 * Sets the depth this GameObject is drawn at. Only has an effect when sprite draws are batched or deferred.
+	 * @param depth The depth to use; GameObjects with a higher depth are drawn behind those with a lower depth
+	 */
+	public void setDepth (int depth) {
+		this.depth = depth;
+	}
+	
+	/**
+	 * Gets the depth this GameObject is drawn at.
+	 * @return The depth of this GameObject
+	 */
+	public int getDepth () {
+		return depth;
+	}
+	
+	/**
+	 * Returns true if this GameObject's sprite overlaps the given view rectangle. Always returns true if this GameObject has no sprite, since its draw method may be overridden.
+	 * @param viewX The x-coordinate of the view
+	 * @param viewY The y-coordinate of the view
+	 * @param viewWidth The width of the view
+	 * @param viewHeight The height of the view
+	 * @return Whether this GameObject could be visible in the view
+	 */
+	public boolean isInView (int viewX, int viewY, int viewWidth, int viewHeight) {
+		Sprite sprite = animationHandler.getImage ();
+		if (sprite == null) {
+			return true;
+		}
+		return x + sprite.getWidth () > viewX && x < viewX + viewWidth && y + sprite.getHeight () > viewY && y < viewY + viewHeight;
 	}
 	
 	/**
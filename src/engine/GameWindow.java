@@ -1,10 +1,15 @@
 package engine;
 
+import java.awt.BufferCapabilities;
+import java.awt.Canvas;
 import java.awt.Color;
+import java.awt.Dimension;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
 import java.awt.KeyEventDispatcher;
 import java.awt.KeyboardFocusManager;
 import java.awt.Rectangle;
+import java.awt.Transparency;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.awt.event.MouseEvent;
@@ -12,6 +17,7 @@ import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.awt.image.BufferStrategy;
 import java.awt.image.BufferedImage;
 import java.util.LinkedList;
 
@@ -23,15 +29,127 @@ import javax.swing.JFrame;
  *
  */
 public class GameWindow extends JFrame {
-
+	
 	/**
 	 * Serial version ID, as specified by Swing?
 	 */
 	private static final long serialVersionUID = 8537802541411424289L;
 	/**
-	 * The image used as a drawing buffer
+	 * The color each frame is cleared to before it is drawn
+	 */
+	static final Color BACKGROUND_COLOR = new Color (0xC0C0C0);
+	/**
+	 * The image used as a drawing buffer when a frame can't be drawn straight into the BufferStrategy: the raster renderers, the render backends and the scaler work on its pixels, and dirty rendering relies on it keeping its contents between frames
 	 */
 	private BufferedImage buffer;
+	/**
+	 * The graphics object every immediate draw in the current frame goes through; created when the frame begins and disposed once when it is presented. Null between frames
+	 */
+	private Graphics2D frameGraphics;
+	/**
+	 * Whether the current frame is drawn straight into the BufferStrategy's back buffer rather than into the buffer
+	 */
+	private boolean directFrame;
+	/**
+	 * The canvas the game is presented on
+	 */
+	private Canvas canvas;
+	/**
+	 * The buffer strategy used to present frames on the canvas
+	 */
+	private BufferStrategy strategy;
+	/**
+	 * The software renderer drawing directly to the buffer; null unless raster rendering is enabled
+	 */
+	private RasterBlitter blitter;
+	/**
+	 * The queue sprite draws are recorded in and batched from; null unless batch rendering is enabled
+	 */
+	private RenderQueue renderQueue;
+	/**
+	 * The multi-threaded renderer which draws the render queue; null if parallel rendering is disabled
+	 */
+	private BandedRasterizer rasterizer;
+	/**
+	 * Whether frames are recorded by the game logic thread and drawn by the render thread
+	 */
+	private boolean deferredRendering;
+	/**
+	 * The queue the game logic thread is recording the next frame into, in deferred rendering mode
+	 */
+	private RenderQueue recordingQueue;
+	/**
+	 * The most recently finished frame which has not yet been taken by the render thread, in deferred rendering mode
+	 */
+	private RenderQueue publishedQueue;
+	/**
+	 * The frame being drawn by the render thread, in deferred rendering mode
+	 */
+	private RenderQueue drawingQueue;
+	/**
+	 * Whether publishedQueue holds a frame newer than drawingQueue
+	 */
+	private boolean framePublished;
+	/**
+	 * Guards the exchange of queues between the game logic and render threads
+	 */
+	private final Object queueLock = new Object ();
+	/**
+	 * The backend used to draw recorded frames in deferred rendering mode
+	 */
+	private RenderBackend renderBackend = new GraphicsBackend ();
+	/**
+	 * Whether only the regions marked as dirty are redrawn and presented each frame
+	 */
+	private boolean dirtyRendering;
+	/**
+	 * The union of the regions marked as dirty since the last frame began; null if there are none
+	 */
+	private Rectangle dirtyRegion;
+	/**
+	 * Guards dirtyRegion, which can be marked from any thread
+	 */
+	private final Object dirtyLock = new Object ();
+	/**
+	 * The region being redrawn this frame in dirty rendering mode; null if nothing is being redrawn
+	 */
+	private Rectangle frameRegion;
+	/**
+	 * The region redrawn in the previous frame, which must also be presented since the window has two buffers
+	 */
+	private Rectangle previousRegion;
+	/**
+	 * Whether the BufferStrategy's back buffer still holds the previously presented frame when it is drawn to, so that only the dirty regions need presenting
+	 */
+	private boolean keepsContents;
+	/**
+	 * The width of the canvas when the last frame was presented
+	 */
+	private int presentedWidth;
+	/**
+	 * The height of the canvas when the last frame was presented
+	 */
+	private int presentedHeight;
+	/**
+	 * Whether the whole of the next frame must be presented, since the canvas or buffer has changed size
+	 */
+	private boolean presentAll;
+	/**
+	 * The whole-number factor the buffer is scaled by when presented; 0 if the canvas is smaller than the buffer and the buffer is shrunk to fit instead
+	 */
+	private int presentScale;
+	/**
+	 * The area of the canvas the buffer is presented in; the rest of the canvas is letterboxed
+	 */
+	private Rectangle presentArea = new Rectangle ();
+	/**
+	 * Upscales the buffer before it is presented; null if the buffer is presented without scaling
+	 */
+	private IntegerScaler scaler;
+	/**
+	 * The number of threads used to upscale the buffer
+	 */
+	private int scalingThreads = 1;
 	/**
 	 * The InputManager used to detect input for this window
 	 */
@@ -49,34 +167,290 @@ public class GameWindow extends JFrame {
 				System.exit (0);
 			}
 		});
+		//Sets up the canvas for active rendering; the frame keeps keyboard focus
+		canvas = new Canvas ();
+		canvas.setPreferredSize (new Dimension (width, height));
+		canvas.setIgnoreRepaint (true);
+		canvas.setFocusable (false);
+		setIgnoreRepaint (true);
+		getContentPane ().add (canvas);
 		//Sets the initial size of the window and makes it visible
 		pack ();
-		setSize (width + getInsets ().left + getInsets ().right, height + getInsets ().top + getInsets ().bottom);
-		getContentPane ().setSize (width, height);
 		setVisible (true);
+		canvas.createBufferStrategy (2);
+		strategy = canvas.getBufferStrategy ();
+		BufferCapabilities capabilities = strategy.getCapabilities ();
+		keepsContents = !capabilities.isPageFlipping () || capabilities.getFlipContents () == BufferCapabilities.FlipContents.COPIED;
 		//Initializes the buffer for drawing
-		buffer = new BufferedImage (width, height, BufferedImage.TYPE_3BYTE_BGR);
+		buffer = ImageConverter.createCompatible (width, height, Transparency.OPAQUE);
 		//Sets up the input detection
-		inputManager = new InputManager (this, this.getContentPane ());
+		inputManager = new InputManager (this, canvas);
+	}
+	
+	/**
+	 * Starts a new frame, creating the one graphics object every immediate draw in it goes through. Called by the render thread before anything in the frame is drawn; refresh disposes of the graphics object once the frame is presented.
+	 * If nothing needs the buffer's pixels, i.e. raster, deferred and dirty rendering are off and the buffer fits the canvas, the frame is drawn straight into the BufferStrategy's back buffer, scaled to the present area, so the buffer is never copied. Otherwise the frame is drawn into the buffer, which is cleared first unless dirty rendering is in effect.
+	 * @return The graphics object for this frame
+	 */
+	public Graphics2D beginFrame () {
+		int width = canvas.getWidth ();
+		int height = canvas.getHeight ();
+		if (width != presentedWidth || height != presentedHeight) {
+			configurePresentation (width, height);
+		}
+		directFrame = blitter == null && !deferredRendering && !isDirtyRendering () && presentScale > 0;
+		if (directFrame) {
+			frameGraphics = (Graphics2D)strategy.getDrawGraphics ();
+			fillLetterbox (frameGraphics, width, height);
+			frameGraphics.translate (presentArea.x, presentArea.y);
+			frameGraphics.scale (presentScale, presentScale);
+			frameGraphics.clipRect (0, 0, buffer.getWidth (), buffer.getHeight ());
+		} else {
+			frameGraphics = buffer.createGraphics ();
+		}
+		if (!isDirtyRendering ()) {
+			frameGraphics.setColor (BACKGROUND_COLOR);
+			frameGraphics.fillRect (0, 0, buffer.getWidth (), buffer.getHeight ());
+		}
+		return frameGraphics;
 	}
 	
 	/**
-	 * Renders the contents of the buffer onto the window.
+	 * Draws any batched sprites, disposes of the frame's graphics object and presents the frame on the window.
+	 * In dirty rendering mode, nothing is presented if nothing was redrawn. Only the regions redrawn in this frame and the last are presented if the BufferStrategy keeps the previous frame in its back buffer; otherwise the whole buffer is.
 	 */
 	public void refresh () {
-		Graphics bufferGraphics = getBufferGraphics ();
-		Graphics windowGraphics = getContentPane ().getGraphics ();
-		windowGraphics.drawImage (buffer, 0, 0, getContentPane ().getWidth (), getContentPane ().getHeight (), null);	
-		bufferGraphics.setColor (new Color (0xC0C0C0));
-		bufferGraphics.fillRect (0, 0, buffer.getWidth (), buffer.getHeight ());
+		if (deferredRendering) {
+			renderBackend.render (takeFrame (), buffer);
+		} else if (renderQueue != null && rasterizer != null) {
+			Rectangle clip = frameRegion;
+			if (!isDirtyRendering () || clip == null) {
+				clip = new Rectangle (0, 0, buffer.getWidth (), buffer.getHeight ());
+			}
+			rasterizer.draw (renderQueue, clip.x, clip.y, clip.width, clip.height);
+			renderQueue.clear ();
+		} else if (renderQueue != null) {
+			renderQueue.flush ();
+		}
+		frameGraphics.dispose ();
+		frameGraphics = null;
+		boolean resized = presentAll || canvas.getWidth () != presentedWidth || canvas.getHeight () != presentedHeight;
+		presentAll = false;
+		if (directFrame) {
+			//If the back buffer was lost the frame is gone, but the next frame redraws all of it anyway
+			strategy.show ();
+		} else if (!isDirtyRendering ()) {
+			present (null);
+		} else if (frameRegion != null || resized) {
+			Rectangle region = null;
+			if (!resized && keepsContents) {
+				region = previousRegion == null ? frameRegion : frameRegion.union (previousRegion);
+			}
+			present (region);
+		}
+		previousRegion = frameRegion;
+		frameRegion = null;
+		if (blitter != null) {
+			blitter.resetClip ();
+		}
+	}
+	
+	/**
+	 * Draws the given region of the buffer onto the window and shows it. The buffer is scaled up by the largest whole-number factor that fits the canvas and centered, with black bars filling the rest.
+	 * @param region The region of the buffer to present; null to present all of it
+	 */
+	private void present (Rectangle region) {
+		int width = canvas.getWidth ();
+		int height = canvas.getHeight ();
+		if (width != presentedWidth || height != presentedHeight) {
+			configurePresentation (width, height);
+			region = null;
+		}
+		if (presentScale > 1 && (scaler == null || scaler.getSource () != buffer)) {
+			if (scaler != null) {
+				scaler.shutdown ();
+			}
+			scaler = new IntegerScaler (buffer, presentScale, scalingThreads);
+			region = null;
+		}
+		if (scaler != null) {
+			if (region == null) {
+				scaler.scale ();
+			} else {
+				scaler.scale (region.x, region.y, region.width, region.height);
+			}
+		}
+		boolean lost;
+		do {
+			boolean restored;
+			do {
+				Graphics windowGraphics = strategy.getDrawGraphics ();
+				if (presentScale == 0) {
+					if (region != null) {
+						double scaleX = (double)width / buffer.getWidth ();
+						double scaleY = (double)height / buffer.getHeight ();
+						int x1 = (int)Math.floor (region.x * scaleX);
+						int y1 = (int)Math.floor (region.y * scaleY);
+						int x2 = (int)Math.ceil ((region.x + region.width) * scaleX);
+						int y2 = (int)Math.ceil ((region.y + region.height) * scaleY);
+						windowGraphics.setClip (x1, y1, x2 - x1, y2 - y1);
+					}
+					windowGraphics.drawImage (buffer, 0, 0, width, height, null);
+				} else {
+					if (region == null) {
+						fillLetterbox (windowGraphics, width, height);
+					} else {
+						windowGraphics.setClip (presentArea.x + region.x * presentScale, presentArea.y + region.y * presentScale, region.width * presentScale, region.height * presentScale);
+					}
+					windowGraphics.drawImage (scaler == null ? buffer : scaler.getOutput (), presentArea.x, presentArea.y, null);
+				}
+				windowGraphics.dispose ();
+				restored = strategy.contentsRestored ();
+				if (restored) {
+					region = null;
+				}
+			} while (restored);
+			strategy.show ();
+			lost = strategy.contentsLost ();
+			if (lost) {
+				region = null;
+			}
+		} while (lost);
+	}
+	
+	/**
+	 * Fills the parts of the canvas outside the present area with black bars.
+	 * @param windowGraphics The graphics object referring to the BufferStrategy's back buffer
+	 * @param width The width of the canvas
+	 * @param height The height of the canvas
+	 */
+	private void fillLetterbox (Graphics windowGraphics, int width, int height) {
+		windowGraphics.setColor (Color.BLACK);
+		windowGraphics.fillRect (0, 0, width, presentArea.y);
+		windowGraphics.fillRect (0, presentArea.y + presentArea.height, width, height - presentArea.y - presentArea.height);
+		windowGraphics.fillRect (0, presentArea.y, presentArea.x, presentArea.height);
+		windowGraphics.fillRect (presentArea.x + presentArea.width, presentArea.y, width - presentArea.x - presentArea.width, presentArea.height);
+	}
+	
+	/**
+	 * Works out how the buffer is scaled and positioned on a canvas of the given size. Only called when the canvas or buffer changes size; the scaler is created when it is first needed.
+	 * @param width The width of the canvas
+	 * @param height The height of the canvas
+	 */
+	private void configurePresentation (int width, int height) {
+		if (scaler != null) {
+			scaler.shutdown ();
+			scaler = null;
+		}
+		presentedWidth = width;
+		presentedHeight = height;
+		presentAll = true;
+		presentScale = IntegerScaler.getLargestScale (buffer.getWidth (), buffer.getHeight (), width, height);
+		if (presentScale == 0) {
+			presentArea.setBounds (0, 0, width, height);
+			return;
+		}
+		int scaledWidth = buffer.getWidth () * presentScale;
+		int scaledHeight = buffer.getHeight () * presentScale;
+		presentArea.setBounds ((width - scaledWidth) / 2, (height - scaledHeight) / 2, scaledWidth, scaledHeight);
+	}
+	
+	/**
+	 * Sets the number of threads used to upscale the buffer when it is presented. Frames drawn straight into the BufferStrategy are scaled as they are drawn instead.
+	 * @param threads The number of threads to use; 1 to scale on the render thread only
+	 */
+	public void setScalingThreads (int threads) {
+		scalingThreads = Math.max (threads, 1);
+		presentedWidth = -1;
+	}
+	
+	/**
+	 * Gets the area of the canvas the buffer is currently presented in, excluding the letterbox bars.
+	 * @return The bounds of the presented buffer, in canvas pixels
+	 */
+	public Rectangle getPresentArea () {
+		if (presentedWidth != canvas.getWidth () || presentedHeight != canvas.getHeight ()) {
+			return new Rectangle (0, 0, canvas.getWidth (), canvas.getHeight ());
+		}
+		return new Rectangle (presentArea);
+	}
+	
+	/**
+	 * Sets whether only the regions marked as dirty are redrawn and presented each frame. Suited to screens where little moves; GameObjects mark their own changes, but anything drawn another way must call markDirty when it changes.
+	 * If page flips don't keep the previous frame in the back buffer, the whole buffer is still presented whenever something is redrawn, though only the dirty regions are redrawn.
+	 * @param enabled Whether to use dirty rendering
+	 */
+	public void setDirtyRendering (boolean enabled) {
+		dirtyRendering = enabled;
+		markAllDirty ();
+	}
+	
+	/**
+	 * Returns true if only the regions marked as dirty are redrawn and presented each frame. Dirty rendering is not used while deferred rendering is enabled.
+	 * @return Whether dirty rendering is in effect
+	 */
+	public boolean isDirtyRendering () {
+		return dirtyRendering && !deferredRendering;
+	}
+	
+	/**
+	 * Marks the given region of the buffer as needing to be redrawn in dirty rendering mode. Can be called from any thread.
+	 * @param x The x-coordinate of the region, in pixels
+	 * @param y The y-coordinate of the region, in pixels
+	 * @param width The width of the region, in pixels
+	 * @param height The height of the region, in pixels
+	 */
+	public void markDirty (int x, int y, int width, int height) {
+		synchronized (dirtyLock) {
+			if (dirtyRegion == null) {
+				dirtyRegion = new Rectangle (x, y, width, height);
+			} else {
+				dirtyRegion.add (new Rectangle (x, y, width, height));
+			}
+		}
 	}
 	
 	/**
-	 * Gets the graphics object referring to this GameWindow's buffer.
-	 * @return The buffer for this GameWindow's graphics
+	 * Marks the entire buffer as needing to be redrawn in dirty rendering mode.
+	 */
+	public void markAllDirty () {
+		markDirty (0, 0, buffer.getWidth (), buffer.getHeight ());
+	}
+	
+	/**
+	 * Starts a frame in dirty rendering mode: takes the regions marked as dirty, clears them, and restricts drawing to them until the frame is presented.
+	 * @return The region to redraw this frame; null if nothing needs redrawing
+	 */
+	public Rectangle beginDirtyFrame () {
+		Rectangle region;
+		synchronized (dirtyLock) {
+			region = dirtyRegion;
+			dirtyRegion = null;
+		}
+		if (region != null) {
+			region = region.intersection (new Rectangle (0, 0, buffer.getWidth (), buffer.getHeight ()));
+			if (region.isEmpty ()) {
+				region = null;
+			}
+		}
+		frameRegion = region;
+		if (region != null) {
+			frameGraphics.setClip (region);
+			frameGraphics.setColor (BACKGROUND_COLOR);
+			frameGraphics.fillRect (region.x, region.y, region.width, region.height);
+			if (blitter != null) {
+				blitter.setClip (region.x, region.y, region.width, region.height);
+			}
+		}
+		return region;
+	}
+	
+	/**
+	 * Gets the graphics object for the frame being drawn, which every immediate draw in the frame shares. It is clipped to the region being redrawn in dirty rendering mode, and belongs to the window: callers must not dispose of it or keep it past the frame.
+	 * @return The graphics object for the current frame; null if no frame is being drawn
 	 */
 	public Graphics getBufferGraphics () {
-		return buffer.getGraphics ();
+		return frameGraphics;
 	}
 	
 	/**
@@ -93,7 +467,155 @@ public class GameWindow extends JFrame {
 	 * @param height The height to use, in pixels
 	 */
 	public void setResolution (int width, int height) {
-		buffer = new BufferedImage (width, height, BufferedImage.TYPE_3BYTE_BGR);
+		buffer = ImageConverter.createCompatible (width, height, Transparency.OPAQUE);
+		if (blitter != null) {
+			blitter = new RasterBlitter (buffer);
+		}
+		if (rasterizer != null) {
+			setParallelRendering (rasterizer.getBandCount ());
+		}
+		presentedWidth = -1;
+		markAllDirty ();
+	}
+	
+	/**
+	 * Sets whether sprites and tiles are drawn by writing directly to the buffer's pixel data rather than through Java2D.
+	 * @param enabled Whether to use raster rendering
+	 */
+	public void setRasterRendering (boolean enabled) {
+		if (enabled && blitter == null) {
+			blitter = new RasterBlitter (buffer);
+		} else if (!enabled) {
+			blitter = null;
+			setParallelRendering (0);
+		}
+	}
+	
+	/**
+	 * Gets the software renderer which draws directly to the buffer.
+	 * @return The RasterBlitter for the buffer; null if raster rendering is disabled
+	 */
+	public RasterBlitter getBlitter () {
+		return blitter;
+	}
+	
+	/**
+	 * Sets whether sprite draws are recorded during the frame and drawn together, sorted by depth, when the frame is presented.
+	 * @param enabled Whether to use batch rendering
+	 */
+	public void setBatchRendering (boolean enabled) {
+		if (enabled && renderQueue == null) {
+			renderQueue = new RenderQueue ();
+		} else if (!enabled) {
+			renderQueue = null;
+			setParallelRendering (0);
+		}
+	}
+	
+	/**
+	 * Sets the number of threads the render queue is drawn with, each drawing one horizontal band of the buffer. Enables raster and batch rendering, which parallel rendering builds on.
+	 * @param bands The number of bands to draw in parallel; 0 to disable parallel rendering
+	 */
+	public void setParallelRendering (int bands) {
+		if (rasterizer != null) {
+			rasterizer.shutdown ();
+			rasterizer = null;
+		}
+		if (bands > 0) {
+			setRasterRendering (true);
+			setBatchRendering (true);
+			rasterizer = new BandedRasterizer (buffer, bands);
+		}
+	}
+	
+	/**
+	 * Sets whether frames are recorded by the game logic thread and drawn by the render thread. When enabled, the game logic thread calls ObjectHandler.renderAll after each step, so all sprite draws become commands in a render queue, and the render thread draws the latest finished frame with the render backend.
+	 * Anything drawn directly to the buffer's graphics from draw methods is unsafe in this mode, since draw methods run on the game logic thread.
+	 * @param enabled Whether to use deferred rendering
+	 */
+	public void setDeferredRendering (boolean enabled) {
+		synchronized (queueLock) {
+			if (enabled && !deferredRendering) {
+				recordingQueue = new RenderQueue ();
+				publishedQueue = new RenderQueue ();
+				drawingQueue = new RenderQueue ();
+				framePublished = false;
+			}
+			deferredRendering = enabled;
+		}
+		markAllDirty ();
+	}
+	
+	/**
+	 * Returns true if frames are recorded by the game logic thread and drawn by the render thread.
+	 * @return Whether deferred rendering is enabled
+	 */
+	public boolean isDeferredRendering () {
+		return deferredRendering;
+	}
+	
+	/**
+	 * Hands the frame recorded by the game logic thread over to the render thread, and starts recording a new frame. Called by the game logic thread at the end of each step in deferred rendering mode.
+	 */
+	public void publishFrame () {
+		synchronized (queueLock) {
+			RenderQueue finished = recordingQueue;
+			recordingQueue = publishedQueue;
+			publishedQueue = finished;
+			framePublished = true;
+		}
+		recordingQueue.clear ();
+	}
+	
+	/**
+	 * Takes the most recently published frame for drawing; if no frame has been published since the last call, the previous frame is drawn again.
+	 * @return The queue holding the frame to draw
+	 */
+	private RenderQueue takeFrame () {
+		synchronized (queueLock) {
+			if (framePublished) {
+				RenderQueue published = publishedQueue;
+				publishedQueue = drawingQueue;
+				drawingQueue = published;
+				framePublished = false;
+			}
+			return drawingQueue;
+		}
+	}
+	
+	/**
+	 * Sets the backend used to draw recorded frames in deferred rendering mode.
+	 * @param backend The backend to use
+	 */
+	public void setRenderBackend (RenderBackend backend) {
+		renderBackend = backend;
+	}
+	
+	/**
+	 * Gets the backend used to draw recorded frames in deferred rendering mode.
+	 * @return The render backend
+	 */
+	public RenderBackend getRenderBackend () {
+		return renderBackend;
+	}
+	
+	/**
+	 * Gets the queue sprite draws are recorded in. In deferred rendering mode, this is the queue the game logic thread is recording into.
+	 * @return The render queue; null if batch and deferred rendering are disabled
+	 */
+	public RenderQueue getRenderQueue () {
+		if (deferredRendering) {
+			return recordingQueue;
+		}
+		return renderQueue;
+	}
+	
+	/**
+	 * Gets the name of the pixel format used by the buffer, for instrumentation.
+	 * @return The buffer's pixel format
+	 */
+	public String getBufferFormat () {
+		return ImageConverter.describe (buffer);
 	}
 	
 	public InputManager getInputImage () {
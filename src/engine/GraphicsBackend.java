@@ -0,0 +1,22 @@
+package engine;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+
+/**
+ * A RenderBackend which draws each command with Graphics.drawImage.
+ * @author nathan
+ *
+ */
+public class GraphicsBackend implements RenderBackend {
+	
+	@Override
+	public void render (RenderQueue queue, BufferedImage target) {
+		queue.sort ();
+		Graphics targetGraphics = target.getGraphics ();
+		for (int i = 0; i < queue.size (); i ++) {
+			targetGraphics.drawImage (queue.getSprite (i).getFrame (queue.getFrame (i)), queue.getX (i), queue.getY (i), null);
+		}
+		targetGraphics.dispose ();
+	}
+}
@@ -0,0 +1,615 @@
+package engine;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A hierarchical (HPA*) pathfinder for long-distance queries across a Room.
+ * The room is divided into square clusters of tiles; the passable openings between neighboring clusters become the nodes of an abstract graph,
+ * and the cheapest paths between the nodes of each cluster are precomputed as its edges. Queries search the abstract graph first and then
+ * refine each abstract step with a search confined to a single cluster, so the work done per query does not grow with the size of the room.
+ * Paths are cached by start and goal tile in a bounded least-recently-used cache.
+ * @author nathan
+ *
+ */
+public class HierarchicalPathfinder {
+	
+	/**
+	 * The default width and height of a cluster, in tiles
+	 */
+	public static final int DEFAULT_CLUSTER_SIZE = 16;
+	/**
+	 * The default number of paths kept in the path cache
+	 */
+	public static final int DEFAULT_CACHE_SIZE = 256;
+	
+	/**
+	 * The room this pathfinder searches
+	 */
+	private Room room;
+	/**
+	 * The width and height of each cluster, in tiles
+	 */
+	private int clusterSize;
+	/**
+	 * The number of clusters across the room
+	 */
+	private int clustersWide;
+	/**
+	 * The number of clusters down the room
+	 */
+	private int clustersHigh;
+	/**
+	 * The abstract nodes contained in each cluster, indexed by cluster
+	 */
+	private ArrayList<ArrayList<Node>> clusterNodes;
+	/**
+	 * The abstract nodes on the border between each cluster and the cluster to its right, indexed by the left cluster
+	 */
+	private ArrayList<ArrayList<Node>> eastBorders;
+	/**
+	 * The abstract nodes on the border between each cluster and the cluster below it, indexed by the upper cluster
+	 */
+	private ArrayList<ArrayList<Node>> southBorders;
+	/**
+	 * All abstract nodes, indexed by id; removed nodes leave a null slot
+	 */
+	private ArrayList<Node> nodes;
+	/**
+	 * Ids of removed nodes which can be reused
+	 */
+	private ArrayList<Integer> freeIds;
+	/**
+	 * Cache of completed paths, keyed by start and goal tile
+	 */
+	private LinkedHashMap<Long, int[]> cache;
+	/**
+	 * The queue used for both the abstract and the local searches
+	 */
+	private PathQueue queue;
+	/**
+	 * Scratch distances for searches within a cluster
+	 */
+	private int[] localDistance;
+	/**
+	 * Scratch directions for searches within a cluster; points from each tile back towards the origin of the search
+	 */
+	private byte[] localDirection;
+	/**
+	 * Incremented for each abstract search so that per-node search state doesn't need clearing
+	 */
+	private int searchId;
+	
+	/**
+	 * A node in the abstract graph; a tile on the edge of a cluster next to a passable tile in the neighboring cluster
+	 * @author nathan
+	 *
+	 */
+	private static class Node {
+		
+		private int id;
+		
+		private int x;
+		
+		private int y;
+		
+		private int cluster;
+		
+		/**
+		 * The node on the other side of the cluster border
+		 */
+		private Node partner;
+		
+		/**
+		 * The nodes in the same cluster which can be reached from this node
+		 */
+		private Node[] edges = new Node[0];
+		
+		/**
+		 * The cost of reaching each node in edges
+		 */
+		private int[] edgeCosts = new int[0];
+		
+		private int searchId;
+		
+		private int cost;
+		
+		private int goalCost;
+		
+		private Node parent;
+		
+		public Node (int x, int y, int cluster) {
+			this.x = x;
+			this.y = y;
+			this.cluster = cluster;
+		}
+	}
+	
+	/**
+	 * Constructs a new HierarchicalPathfinder over the given room with the default cluster and cache sizes, and builds its abstract graph.
+	 * @param room The room to search
+	 */
+	public HierarchicalPathfinder (Room room) {
+		this (room, DEFAULT_CLUSTER_SIZE, DEFAULT_CACHE_SIZE);
+	}
+	
+	/**
+	 * Constructs a new HierarchicalPathfinder over the given room and builds its abstract graph.
+	 * @param room The room to search
+	 * @param clusterSize The width and height of each cluster, in tiles
+	 * @param cacheSize The maximum number of paths to keep in the path cache
+	 */
+	public HierarchicalPathfinder (Room room, int clusterSize, final int cacheSize) {
+		this.room = room;
+		this.clusterSize = clusterSize;
+		clustersWide = (room.getWidth () + clusterSize - 1) / clusterSize;
+		clustersHigh = (room.getHeight () + clusterSize - 1) / clusterSize;
+		int clusterCount = clustersWide * clustersHigh;
+		clusterNodes = new ArrayList<ArrayList<Node>> (clusterCount);
+		eastBorders = new ArrayList<ArrayList<Node>> (clusterCount);
+		southBorders = new ArrayList<ArrayList<Node>> (clusterCount);
+		nodes = new ArrayList<Node> ();
+		freeIds = new ArrayList<Integer> ();
+		cache = new LinkedHashMap<Long, int[]> (16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry (Map.Entry<Long, int[]> eldest) {
+				return size () > cacheSize;
+			}
+		};
+		queue = new PathQueue (clusterSize * clusterSize);
+		localDistance = new int[clusterSize * clusterSize];
+		localDirection = new byte[clusterSize * clusterSize];
+		for (int i = 0; i < clusterCount; i ++) {
+			clusterNodes.add (new ArrayList<Node> ());
+			eastBorders.add (new ArrayList<Node> ());
+			southBorders.add (new ArrayList<Node> ());
+		}
+		for (int i = 0; i < clusterCount; i ++) {
+			buildEastBorder (i);
+			buildSouthBorder (i);
+		}
+		for (int i = 0; i < clusterCount; i ++) {
+			buildEdges (i);
+		}
+	}
+	
+	/**
+	 * Moves this HierarchicalPathfinder to another room holding the same tiles, keeping its abstract graph. Used when a map loaded into a scratch room is swapped into the room in use.
+	 * @param room The room to search
+	 */
+	void setRoom (Room room) {
+		this.room = room;
+	}
+	
+	/**
+	 * Updates the abstract graph after the tile at (x, y) changes. Only the borders of the tile's cluster and the edges of it and its neighbors are rebuilt.
+	 * @param x The x-coordinate of the changed tile
+	 * @param y The y-coordinate of the changed tile
+	 */
+	public synchronized void refine (int x, int y) {
+		int cx = x / clusterSize;
+		int cy = y / clusterSize;
+		if (cx < 0 || cy < 0 || cx >= clustersWide || cy >= clustersHigh) {
+			return;
+		}
+		int cluster = cy * clustersWide + cx;
+		buildEastBorder (cluster);
+		buildSouthBorder (cluster);
+		if (cx > 0) {
+			buildEastBorder (cluster - 1);
+			buildEdges (cluster - 1);
+		}
+		if (cy > 0) {
+			buildSouthBorder (cluster - clustersWide);
+			buildEdges (cluster - clustersWide);
+		}
+		if (cx < clustersWide - 1) {
+			buildEdges (cluster + 1);
+		}
+		if (cy < clustersHigh - 1) {
+			buildEdges (cluster + clustersWide);
+		}
+		buildEdges (cluster);
+		cache.clear ();
+	}
+	
+	/**
+	 * Finds a path between the given tiles.
+	 * @param startX The x-coordinate of the starting tile
+	 * @param startY The y-coordinate of the starting tile
+	 * @param goalX The x-coordinate of the goal tile
+	 * @param goalY The y-coordinate of the goal tile
+	 * @return The tiles along the path, including the start and goal, in the format [x1, y1, x2, y2...]; null if there is no path
+	 */
+	public synchronized int[] findPath (int startX, int startY, int goalX, int goalY) {
+		if (room.isSolid (startX, startY) || room.isSolid (goalX, goalY)) {
+			return null;
+		}
+		int width = room.getWidth ();
+		Long key = Long.valueOf (((long)(startY * width + startX) << 32) | (goalY * width + goalX));
+		int[] cached = cache.get (key);
+		if (cached != null) {
+			return cached.clone ();
+		}
+		int[] path = search (startX, startY, goalX, goalY);
+		if (path != null) {
+			cache.put (key, path);
+			return path.clone ();
+		}
+		return null;
+	}
+	
+	/**
+	 * Clears the path cache.
+	 */
+	public synchronized void clearCache () {
+		cache.clear ();
+	}
+	
+	/**
+	 * Gets the number of nodes in the abstract graph.
+	 * @return The number of abstract nodes
+	 */
+	public synchronized int getNodeCount () {
+		return nodes.size () - freeIds.size ();
+	}
+	
+	/**
+	 * Searches the abstract graph for a path and refines it into a list of tiles.
+	 * @return The tiles along the path, in the same format as findPath; null if there is no path
+	 */
+	private int[] search (int startX, int startY, int goalX, int goalY) {
+		int startCluster = getCluster (startX, startY);
+		int goalCluster = getCluster (goalX, goalY);
+		IntList path = new IntList ();
+		if (startCluster == goalCluster && localPath (startCluster, startX, startY, goalX, goalY, path)) {
+			return path.toArray ();
+		}
+		searchId ++;
+		//Find the cost from every node in the goal cluster to the goal
+		ArrayList<Node> goalNodes = clusterNodes.get (goalCluster);
+		localSearch (goalCluster, goalX, goalY, true);
+		for (int i = 0; i < goalNodes.size (); i ++) {
+			Node working = goalNodes.get (i);
+			working.searchId = searchId;
+			working.cost = Integer.MAX_VALUE;
+			working.parent = null;
+			working.goalCost = localDistance [localIndex (goalCluster, working.x, working.y)];
+		}
+		//Seed the search with every node reachable from the start
+		queue.clear ();
+		ArrayList<Node> startNodes = clusterNodes.get (startCluster);
+		localSearch (startCluster, startX, startY, false);
+		for (int i = 0; i < startNodes.size (); i ++) {
+			Node working = startNodes.get (i);
+			if (working.searchId != searchId) {
+				working.searchId = searchId;
+				working.goalCost = Integer.MAX_VALUE;
+			}
+			working.parent = null;
+			working.cost = localDistance [localIndex (startCluster, working.x, working.y)];
+			if (working.cost != Integer.MAX_VALUE) {
+				queue.add (working.id, working.cost + heuristic (working, goalX, goalY));
+			}
+		}
+		Node best = null;
+		int bestCost = Integer.MAX_VALUE;
+		while (!queue.isEmpty ()) {
+			if (queue.peekPriority () >= bestCost) {
+				break;
+			}
+			int priority = queue.peekPriority ();
+			Node working = nodes.get (queue.poll ());
+			if (priority - heuristic (working, goalX, goalY) > working.cost) {
+				continue;
+			}
+			if (working.goalCost != Integer.MAX_VALUE && working.cost + working.goalCost < bestCost) {
+				best = working;
+				bestCost = working.cost + working.goalCost;
+			}
+			if (working.partner != null) {
+				relax (working, working.partner, room.getTileCost (working.partner.x, working.partner.y), goalX, goalY);
+			}
+			for (int i = 0; i < working.edges.length; i ++) {
+				relax (working, working.edges [i], working.edgeCosts [i], goalX, goalY);
+			}
+		}
+		if (best == null) {
+			return null;
+		}
+		//Collect the abstract path, then refine each step
+		ArrayList<Node> route = new ArrayList<Node> ();
+		for (Node working = best; working != null; working = working.parent) {
+			route.add (0, working);
+		}
+		Node first = route.get (0);
+		localPath (startCluster, startX, startY, first.x, first.y, path);
+		for (int i = 1; i < route.size (); i ++) {
+			Node from = route.get (i - 1);
+			Node to = route.get (i);
+			if (from.cluster == to.cluster) {
+				path.removeLast ();
+				localPath (to.cluster, from.x, from.y, to.x, to.y, path);
+			} else {
+				path.add (to.x, to.y);
+			}
+		}
+		path.removeLast ();
+		localPath (goalCluster, best.x, best.y, goalX, goalY, path);
+		return path.toArray ();
+	}
+	
+	/**
+	 * Relaxes the abstract edge from one node to another.
+	 */
+	private void relax (Node from, Node to, int edgeCost, int goalX, int goalY) {
+		if (to.searchId != searchId) {
+			to.searchId = searchId;
+			to.cost = Integer.MAX_VALUE;
+			to.goalCost = Integer.MAX_VALUE;
+			to.parent = null;
+		}
+		int cost = from.cost + edgeCost;
+		if (cost < to.cost) {
+			to.cost = cost;
+			to.parent = from;
+			queue.add (to.id, cost + heuristic (to, goalX, goalY));
+		}
+	}
+	
+	/**
+	 * Estimates the cost from a node to the goal; admissible because every tile costs at least 1.
+	 */
+	private int heuristic (Node node, int goalX, int goalY) {
+		return Math.abs (node.x - goalX) + Math.abs (node.y - goalY);
+	}
+	
+	/**
+	 * Recreates the nodes on the border between the given cluster and the cluster to its right.
+	 * @param cluster The index of the left cluster
+	 */
+	private void buildEastBorder (int cluster) {
+		removeNodes (eastBorders.get (cluster));
+		int cx = cluster % clustersWide;
+		int cy = cluster / clustersWide;
+		if (cx >= clustersWide - 1) {
+			return;
+		}
+		int x = (cx + 1) * clusterSize - 1;
+		int y1 = cy * clusterSize;
+		int y2 = Math.min (y1 + clusterSize, room.getHeight ());
+		int runStart = -1;
+		for (int y = y1; y <= y2; y ++) {
+			boolean open = y < y2 && !room.isSolid (x, y) && !room.isSolid (x + 1, y);
+			if (open && runStart == -1) {
+				runStart = y;
+			} else if (!open && runStart != -1) {
+				addEntrances (eastBorders.get (cluster), x, runStart, x, y - 1, 1, 0, cluster, cluster + 1);
+				runStart = -1;
+			}
+		}
+	}
+	
+	/**
+	 * Recreates the nodes on the border between the given cluster and the cluster below it.
+	 * @param cluster The index of the upper cluster
+	 */
+	private void buildSouthBorder (int cluster) {
+		removeNodes (southBorders.get (cluster));
+		int cx = cluster % clustersWide;
+		int cy = cluster / clustersWide;
+		if (cy >= clustersHigh - 1) {
+			return;
+		}
+		int y = (cy + 1) * clusterSize - 1;
+		int x1 = cx * clusterSize;
+		int x2 = Math.min (x1 + clusterSize, room.getWidth ());
+		int runStart = -1;
+		for (int x = x1; x <= x2; x ++) {
+			boolean open = x < x2 && !room.isSolid (x, y) && !room.isSolid (x, y + 1);
+			if (open && runStart == -1) {
+				runStart = x;
+			} else if (!open && runStart != -1) {
+				addEntrances (southBorders.get (cluster), runStart, y, x - 1, y, 0, 1, cluster, cluster + clustersWide);
+				runStart = -1;
+			}
+		}
+	}
+	
+	/**
+	 * Adds the node pairs for an open run of tiles along a cluster border; long runs get a pair at each end, short runs a single pair in the middle.
+	 */
+	private void addEntrances (ArrayList<Node> border, int x1, int y1, int x2, int y2, int dx, int dy, int cluster, int otherCluster) {
+		int length = Math.max (x2 - x1, y2 - y1) + 1;
+		if (length >= clusterSize / 2) {
+			addEntrance (border, x1, y1, dx, dy, cluster, otherCluster);
+			addEntrance (border, x2, y2, dx, dy, cluster, otherCluster);
+		} else {
+			addEntrance (border, (x1 + x2) / 2, (y1 + y2) / 2, dx, dy, cluster, otherCluster);
+		}
+	}
+	
+	/**
+	 * Adds a pair of linked nodes on either side of a cluster border.
+	 */
+	private void addEntrance (ArrayList<Node> border, int x, int y, int dx, int dy, int cluster, int otherCluster) {
+		Node inside = addNode (x, y, cluster);
+		Node outside = addNode (x + dx, y + dy, otherCluster);
+		inside.partner = outside;
+		outside.partner = inside;
+		border.add (inside);
+		border.add (outside);
+	}
+	
+	/**
+	 * Creates a node and adds it to the graph.
+	 */
+	private Node addNode (int x, int y, int cluster) {
+		Node node = new Node (x, y, cluster);
+		if (freeIds.isEmpty ()) {
+			node.id = nodes.size ();
+			nodes.add (node);
+		} else {
+			node.id = freeIds.remove (freeIds.size () - 1);
+			nodes.set (node.id, node);
+		}
+		clusterNodes.get (cluster).add (node);
+		return node;
+	}
+	
+	/**
+	 * Removes all the nodes in the given border from the graph and empties it.
+	 */
+	private void removeNodes (ArrayList<Node> border) {
+		for (int i = 0; i < border.size (); i ++) {
+			Node node = border.get (i);
+			clusterNodes.get (node.cluster).remove (node);
+			nodes.set (node.id, null);
+			freeIds.add (node.id);
+		}
+		border.clear ();
+	}
+	
+	/**
+	 * Recomputes the edges between all pairs of nodes in the given cluster.
+	 * @param cluster The index of the cluster
+	 */
+	private void buildEdges (int cluster) {
+		ArrayList<Node> members = clusterNodes.get (cluster);
+		for (int i = 0; i < members.size (); i ++) {
+			Node from = members.get (i);
+			localSearch (cluster, from.x, from.y, false);
+			int count = 0;
+			Node[] edges = new Node[members.size ()];
+			int[] edgeCosts = new int[members.size ()];
+			for (int j = 0; j < members.size (); j ++) {
+				Node to = members.get (j);
+				int cost = localDistance [localIndex (cluster, to.x, to.y)];
+				if (to != from && cost != Integer.MAX_VALUE) {
+					edges [count] = to;
+					edgeCosts [count] = cost;
+					count ++;
+				}
+			}
+			from.edges = new Node[count];
+			from.edgeCosts = new int[count];
+			System.arraycopy (edges, 0, from.edges, 0, count);
+			System.arraycopy (edgeCosts, 0, from.edgeCosts, 0, count);
+		}
+	}
+	
+	/**
+	 * Runs a search over a single cluster from the given tile, filling localDistance and localDirection.
+	 * @param cluster The cluster to search within
+	 * @param x The x-coordinate of the tile to search from
+	 * @param y The y-coordinate of the tile to search from
+	 * @param reverse If true, finds the cost of reaching (x, y) from each tile; otherwise finds the cost of reaching each tile from (x, y)
+	 */
+	private void localSearch (int cluster, int x, int y, boolean reverse) {
+		int x1 = (cluster % clustersWide) * clusterSize;
+		int y1 = (cluster / clustersWide) * clusterSize;
+		int x2 = Math.min (x1 + clusterSize, room.getWidth ());
+		int y2 = Math.min (y1 + clusterSize, room.getHeight ());
+		for (int i = 0; i < localDistance.length; i ++) {
+			localDistance [i] = Integer.MAX_VALUE;
+			localDirection [i] = FlowField.NONE;
+		}
+		queue.clear ();
+		int origin = (y - y1) * clusterSize + (x - x1);
+		localDistance [origin] = 0;
+		queue.add (origin, 0);
+		while (!queue.isEmpty ()) {
+			int dist = queue.peekPriority ();
+			int index = queue.poll ();
+			if (dist > localDistance [index]) {
+				continue;
+			}
+			int tx = x1 + index % clusterSize;
+			int ty = y1 + index / clusterSize;
+			int leaveCost = reverse ? room.getTileCost (tx, ty) : 0;
+			for (int i = 0; i < 4; i ++) {
+				int nx = tx + FlowField.DIRECTION_X [i];
+				int ny = ty + FlowField.DIRECTION_Y [i];
+				if (nx < x1 || ny < y1 || nx >= x2 || ny >= y2 || room.isSolid (nx, ny)) {
+					continue;
+				}
+				int cost = dist + (reverse ? leaveCost : room.getTileCost (nx, ny));
+				int neighbor = (ny - y1) * clusterSize + (nx - x1);
+				if (cost < localDistance [neighbor]) {
+					localDistance [neighbor] = cost;
+					localDirection [neighbor] = (byte)((i + 2) & 3);
+					queue.add (neighbor, cost);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Appends the cheapest path between two tiles in the same cluster to the given list, including both ends.
+	 * @return True if a path was found; false otherwise
+	 */
+	private boolean localPath (int cluster, int fromX, int fromY, int toX, int toY, IntList path) {
+		localSearch (cluster, toX, toY, true);
+		if (localDistance [localIndex (cluster, fromX, fromY)] == Integer.MAX_VALUE) {
+			return false;
+		}
+		int x = fromX;
+		int y = fromY;
+		path.add (x, y);
+		while (x != toX || y != toY) {
+			int direction = localDirection [localIndex (cluster, x, y)];
+			x += FlowField.DIRECTION_X [direction];
+			y += FlowField.DIRECTION_Y [direction];
+			path.add (x, y);
+		}
+		return true;
+	}
+	
+	/**
+	 * Gets the index of the cluster containing the given tile.
+	 */
+	private int getCluster (int x, int y) {
+		return (y / clusterSize) * clustersWide + (x / clusterSize);
+	}
+	
+	/**
+	 * Gets the index of the given tile in the local search arrays for the given cluster.
+	 */
+	private int localIndex (int cluster, int x, int y) {
+		return (y - (cluster / clustersWide) * clusterSize) * clusterSize + (x - (cluster % clustersWide) * clusterSize);
+	}
+	
+	/**
+	 * A growable list of tile coordinates
+	 * @author nathan
+	 *
+	 */
+	private static class IntList {
+		
+		private int[] data = new int[64];
+		
+		private int size;
+		
+		public void add (int x, int y) {
+			if (size + 2 > data.length) {
+				int[] newData = new int[data.length * 2];
+				System.arraycopy (data, 0, newData, 0, size);
+				data = newData;
+			}
+			data [size ++] = x;
+			data [size ++] = y;
+		}
+		
+		public void removeLast () {
+			size -= 2;
+		}
+		
+		public int[] toArray () {
+			int[] result = new int[size];
+			System.arraycopy (data, 0, result, 0, size);
+			return result;
+		}
+	}
+}
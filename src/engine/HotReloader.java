@@ -0,0 +1,357 @@
+package engine;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+/**
+ * A development mode which watches the resource directory for changed files and reloads only the assets they affect, so that art and maps can be iterated on without restarting the game.
+ * Changed images are decoded again and swapped into the frame arrays of the cached sprites in place, so every Sprite using them draws the new frames; changed parsing parameters are compiled again; and a changed map is reloaded if it is the current room.
+ * Files are watched on a background thread, but changes are only applied by applyPending, which the render loop calls before drawing each frame, and by applyPendingRoom, which the game logic loop calls before each step, so the room is never changed while the game logic is using it.
+ * An asset which fails to reload, e.g. because it was only partly written, is left as it was and the error is logged.
+ * @author nathan
+ *
+ */
+public class HotReloader {
+	
+	/**
+	 * The directory watched by default
+	 */
+	public static final String DEFAULT_ROOT = "resources";
+	
+	/**
+	 * The service watching the resource directories; null if hot reloading is not running
+	 */
+	private static WatchService watcher;
+	/**
+	 * The directory watched by each watch key
+	 */
+	private static HashMap<WatchKey, Path> directories = new HashMap<WatchKey, Path> ();
+	/**
+	 * The files which have changed since changes were last applied
+	 */
+	private static ConcurrentLinkedQueue<Path> changed = new ConcurrentLinkedQueue<Path> ();
+	/**
+	 * Whether the current room's map has changed since the room was last reloaded
+	 */
+	private static volatile boolean roomChanged = false;
+	/**
+	 * Whether any tilesets have been reloaded since the room's tiles were last refreshed
+	 */
+	private static volatile boolean tilesChanged = false;
+	/**
+	 * The number of assets reloaded so far
+	 */
+	private static AtomicInteger reloadCount = new AtomicInteger ();
+	
+	/**
+	 * HotReloader cannot be constructed.
+	 */
+	private HotReloader () {
+		
+	}
+	
+	/**
+	 * Starts watching the default resource directory and all of its subdirectories.
+	 * @throws IOException If the directory could not be watched
+	 */
+	public static void start () throws IOException {
+		start (DEFAULT_ROOT);
+	}
+	
+	/**
+	 * Starts watching the given directory and all of its subdirectories. Does nothing if hot reloading is already running.
+	 * @param root The filepath of the directory to watch
+	 * @throws IOException If the directory could not be watched
+	 */
+	public static synchronized void start (String root) throws IOException {
+		if (watcher != null) {
+			return;
+		}
+		watcher = FileSystems.getDefault ().newWatchService ();
+		register (Paths.get (root).toAbsolutePath ().normalize ());
+		final WatchService service = watcher;
+		Thread watchThread = new Thread (new Runnable () {
+			@Override
+			public void run () {
+				watch (service);
+			}
+		}, "HotReloader");
+		watchThread.setDaemon (true);
+		watchThread.start ();
+	}
+	
+	/**
+	 * Stops watching for changed files. Changes which have not been applied yet are discarded.
+	 */
+	public static synchronized void stop () {
+		if (watcher == null) {
+			return;
+		}
+		try {
+			watcher.close ();
+		} catch (IOException e) {
+			e.printStackTrace ();
+		}
+		watcher = null;
+		changed.clear ();
+	}
+	
+	/**
+	 * Returns true if the resource directory is being watched.
+	 * @return Whether hot reloading is running
+	 */
+	public static synchronized boolean isRunning () {
+		return watcher != null;
+	}
+	
+	/**
+	 * Gets the number of assets reloaded since the game started.
+	 * @return The reload count
+	 */
+	public static int getReloadCount () {
+		return reloadCount.get ();
+	}
+	
+	/**
+	 * Reloads the sprites affected by the files which have changed since this method was last called, and schedules the current room to be reloaded or refreshed by applyPendingRoom. Returns immediately if nothing has changed.
+	 * Should be called from the thread which draws the game, so that frames are never swapped in the middle of a frame; the render loop does this automatically.
+	 */
+	public static void applyPending () {
+		if (changed.isEmpty ()) {
+			return;
+		}
+		//Editors often write a file more than once when saving it, so each file is only reloaded once
+		LinkedHashSet<Path> files = new LinkedHashSet<Path> ();
+		Path file;
+		while ((file = changed.poll ()) != null) {
+			files.add (file);
+		}
+		boolean reloaded = false;
+		Iterator<Path> iter = files.iterator ();
+		while (iter.hasNext ()) {
+			file = iter.next ();
+			Room room = GameLoop.getRoom ();
+			if (room != null && isFile (room.getPath (), file)) {
+				roomChanged = true;
+				continue;
+			}
+			if (reloadSprites (file)) {
+				reloaded = true;
+			}
+		}
+		if (reloaded) {
+			SpriteVariants.clear ();
+			tilesChanged = true;
+			if (RenderLoop.wind != null) {
+				RenderLoop.wind.markAllDirty ();
+			}
+		}
+	}
+	
+	/**
+	 * Reloads the current room if its map has changed, or rebuilds its tiles if its tilesets have been reloaded. Returns immediately if neither has happened.
+	 * Should be called from the game logic thread between steps, since the room's tiles are replaced; the game loop does this automatically.
+	 */
+	public static void applyPendingRoom () {
+		if (!roomChanged && !tilesChanged) {
+			return;
+		}
+		boolean reload = roomChanged;
+		roomChanged = false;
+		tilesChanged = false;
+		Room room = GameLoop.getRoom ();
+		if (room == null) {
+			return;
+		}
+		if (reload) {
+			reloadRoom (room);
+		} else {
+			room.refreshTiles ();
+		}
+		if (RenderLoop.wind != null) {
+			RenderLoop.wind.markAllDirty ();
+		}
+	}
+	
+	/**
+	 * Reloads the map of the given room. The objects placed in the map are not created again.
+	 * The map is loaded into a scratch room whose tiles are then moved into the room, so a map which cannot be loaded leaves the room as it was.
+	 * @param room The room to reload
+	 */
+	private static void reloadRoom (Room room) {
+		try {
+			if (room.reload ()) {
+				reloadCount.incrementAndGet ();
+			} else {
+				System.out.println ("Could not reload " + room.getPath ());
+			}
+		} catch (FileNotFoundException e) {
+			//The file may have been replaced rather than written in place; it will be reloaded when it is created again
+			System.out.println ("Could not reload " + room.getPath ());
+		} catch (RuntimeException e) {
+			System.out.println ("Could not reload " + room.getPath ());
+			e.printStackTrace ();
+		}
+	}
+	
+	/**
+	 * Decodes the cached sprites which use the given file as their image or parsing parameters again, and swaps the new frames into the cache entries.
+	 * @param file The changed file
+	 * @return true if any sprites were reloaded; false otherwise
+	 */
+	private static boolean reloadSprites (Path file) {
+		boolean reloaded = false;
+		SpriteCache.Entry[] entries = SpriteCache.getEntries ();
+		for (int i = 0; i < entries.length; i ++) {
+			SpriteCache.Entry entry = entries [i];
+			SpriteParser parser = entry.getParser ();
+			boolean imageChanged = isFile (entry.getImagePath (), file);
+			boolean parametersChanged = parser != null && isFile (parser.getKey (), file);
+			if (!imageChanged && !parametersChanged) {
+				continue;
+			}
+			try {
+				if (reloadEntry (entry, parser, parametersChanged)) {
+					reloadCount.incrementAndGet ();
+					reloaded = true;
+				}
+			} catch (RuntimeException e) {
+				//e.g. a parser reading past the edge of an image which has shrunk; the old frames are kept
+				System.out.println ("Could not reload " + entry.getKey ());
+				e.printStackTrace ();
+			}
+		}
+		return reloaded;
+	}
+	
+	/**
+	 * Decodes the image of the given cache entry again and swaps the new frames into it.
+	 * @param entry The cache entry to reload
+	 * @param parser The parser the entry was split with; null if it is a single frame
+	 * @param parametersChanged Whether the parser's parameter file has changed
+	 * @return true if the frames were replaced; false if the entry was left as it was
+	 */
+	private static boolean reloadEntry (SpriteCache.Entry entry, SpriteParser parser, boolean parametersChanged) {
+		if (parametersChanged) {
+			SpriteParser.invalidate (parser.getKey ());
+			parser = new SpriteParser (parser.getKey ());
+		}
+		BufferedImage image;
+		try {
+			image = ImageIO.read (new File (entry.getImagePath ()));
+		} catch (IOException e) {
+			//The file may still be being written; it will be reloaded when the write finishes
+			image = null;
+		}
+		if (image == null) {
+			System.out.println ("Could not reload " + entry.getImagePath ());
+			return false;
+		}
+		image = ImageConverter.toCompatible (image);
+		BufferedImage[] frames = parser == null ? new BufferedImage[] {image} : parser.parse (image);
+		if (TextureAtlas.isEnabled ()) {
+			TextureAtlas.pack (frames);
+		}
+		if (!SpriteCache.replace (entry, parser, frames, SpriteParser.classify (frames))) {
+			TextureAtlas.release (frames);
+			System.out.println ("Could not reload " + entry.getKey () + ": the number of frames changed");
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns true if the given filepath refers to the given file.
+	 */
+	private static boolean isFile (String filepath, Path file) {
+		if (filepath == null || filepath.startsWith ("{")) {
+			return false;
+		}
+		return Paths.get (filepath).toAbsolutePath ().normalize ().equals (file);
+	}
+	
+	/**
+	 * Registers the given directory and all of its subdirectories with the watch service.
+	 */
+	private static void register (Path root) throws IOException {
+		Files.walkFileTree (root, new SimpleFileVisitor<Path> () {
+			@Override
+			public FileVisitResult preVisitDirectory (Path directory, BasicFileAttributes attributes) throws IOException {
+				WatchKey key = directory.register (watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+				synchronized (directories) {
+					directories.put (key, directory);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+	
+	/**
+	 * Waits for changes from the given watch service and queues the changed files, until the service is closed.
+	 */
+	private static void watch (WatchService service) {
+		while (true) {
+			WatchKey key;
+			try {
+				key = service.take ();
+			} catch (InterruptedException e) {
+				return;
+			} catch (ClosedWatchServiceException e) {
+				return;
+			}
+			Path directory;
+			synchronized (directories) {
+				directory = directories.get (key);
+			}
+			Iterator<WatchEvent<?>> events = key.pollEvents ().iterator ();
+			while (directory != null && events.hasNext ()) {
+				WatchEvent<?> event = events.next ();
+				if (event.kind () == StandardWatchEventKinds.OVERFLOW) {
+					continue;
+				}
+				Path file = directory.resolve ((Path)event.context ());
+				if (Files.isDirectory (file)) {
+					if (event.kind () == StandardWatchEventKinds.ENTRY_CREATE) {
+						synchronized (HotReloader.class) {
+							if (watcher == service) {
+								try {
+									register (file);
+								} catch (IOException e) {
+									e.printStackTrace ();
+								}
+							}
+						}
+					}
+				} else {
+					changed.add (file);
+				}
+			}
+			if (!key.reset ()) {
+				synchronized (directories) {
+					directories.remove (key);
+				}
+			}
+		}
+	}
+}
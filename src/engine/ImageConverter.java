@@ -0,0 +1,192 @@
+package engine;
+
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+
+/**
+ * Converts images to formats which can be drawn onto the window's buffer without going through Java2D's generic conversion loops, and keeps statistics on the conversions done.
+ * @author nathan
+ *
+ */
+public class ImageConverter {
+	
+	/**
+	 * The number of images converted to a compatible format
+	 */
+	private static int conversionCount = 0;
+	/**
+	 * The number of images which were already in a compatible format
+	 */
+	private static int compatibleCount = 0;
+	/**
+	 * The total time spent converting images, in nanoseconds
+	 */
+	private static long conversionTime = 0;
+	/**
+	 * The image type created for each transparency value, indexed by the constants in java.awt.Transparency; 0 if not yet known
+	 */
+	private static int[] compatibleTypes = new int[4];
+	
+	/**
+	 * ImageConverter cannot be constructed.
+	 */
+	private ImageConverter () {
+		
+	}
+	
+	/**
+	 * Returns a copy of the given image in the format best suited to the display, or the image itself if it is already in that format.
+	 * @param image The image to convert; may be null
+	 * @return The converted image; null if the given image was null
+	 */
+	public static BufferedImage toCompatible (BufferedImage image) {
+		if (image == null) {
+			return null;
+		}
+		int transparency = image.getColorModel ().getTransparency ();
+		if (isCompatible (image, transparency)) {
+			synchronized (ImageConverter.class) {
+				compatibleCount ++;
+			}
+			return image;
+		}
+		long startTime = System.nanoTime ();
+		BufferedImage result = createCompatible (image.getWidth (), image.getHeight (), transparency);
+		Graphics2D resultGraphics = result.createGraphics ();
+		resultGraphics.drawImage (image, 0, 0, null);
+		resultGraphics.dispose ();
+		synchronized (ImageConverter.class) {
+			conversionCount ++;
+			conversionTime += System.nanoTime () - startTime;
+		}
+		return result;
+	}
+	
+	/**
+	 * Creates a new image in the format best suited to the display. Falls back to an int-packed format if the display's preferred format isn't one.
+	 * @param width The width of the image
+	 * @param height The height of the image
+	 * @param transparency The transparency of the image, as given by the constants in java.awt.Transparency
+	 * @return The new image
+	 */
+	public static BufferedImage createCompatible (int width, int height, int transparency) {
+		GraphicsConfiguration config = getGraphicsConfiguration ();
+		if (config != null) {
+			BufferedImage image = config.createCompatibleImage (width, height, transparency);
+			if (isIntPacked (image.getType ())) {
+				return image;
+			}
+		}
+		return new BufferedImage (width, height, getFallbackType (transparency));
+	}
+	
+	/**
+	 * Gets the type of the images created by createCompatible for the given transparency.
+	 * @param transparency The transparency of the image, as given by the constants in java.awt.Transparency
+	 * @return The image type, as given by the constants in BufferedImage
+	 */
+	public static synchronized int getCompatibleType (int transparency) {
+		if (compatibleTypes [transparency] == 0) {
+			compatibleTypes [transparency] = createCompatible (1, 1, transparency).getType ();
+		}
+		return compatibleTypes [transparency];
+	}
+	
+	/**
+	 * Gets a readable name for the pixel format of the given image, for instrumentation.
+	 * @param image The image to describe
+	 * @return The name of the image's format
+	 */
+	public static String describe (BufferedImage image) {
+		switch (image.getType ()) {
+			case BufferedImage.TYPE_INT_RGB:
+				return "TYPE_INT_RGB";
+			case BufferedImage.TYPE_INT_ARGB:
+				return "TYPE_INT_ARGB";
+			case BufferedImage.TYPE_INT_ARGB_PRE:
+				return "TYPE_INT_ARGB_PRE";
+			case BufferedImage.TYPE_INT_BGR:
+				return "TYPE_INT_BGR";
+			case BufferedImage.TYPE_3BYTE_BGR:
+				return "TYPE_3BYTE_BGR";
+			case BufferedImage.TYPE_4BYTE_ABGR:
+				return "TYPE_4BYTE_ABGR";
+			case BufferedImage.TYPE_BYTE_INDEXED:
+				return "TYPE_BYTE_INDEXED";
+			case BufferedImage.TYPE_CUSTOM:
+				return "TYPE_CUSTOM (" + image.getColorModel ().getClass ().getSimpleName () + ")";
+			default:
+				return "TYPE " + image.getType ();
+		}
+	}
+	
+	/**
+	 * Gets the number of images which have been converted to a compatible format.
+	 * @return The number of conversions
+	 */
+	public static synchronized int getConversionCount () {
+		return conversionCount;
+	}
+	
+	/**
+	 * Gets the number of images which were passed to toCompatible but were already in a compatible format.
+	 * @return The number of images which didn't need converting
+	 */
+	public static synchronized int getCompatibleCount () {
+		return compatibleCount;
+	}
+	
+	/**
+	 * Gets the total time spent converting images.
+	 * @return The conversion time, in nanoseconds
+	 */
+	public static synchronized long getConversionTime () {
+		return conversionTime;
+	}
+	
+	/**
+	 * Gets a summary of the conversions done so far, for instrumentation.
+	 * @return A one-line summary of the conversion statistics
+	 */
+	public static synchronized String getStatistics () {
+		return "Images converted: " + conversionCount + " (" + (conversionTime / 1000000.0) + " ms), already compatible: " + compatibleCount;
+	}
+	
+	/**
+	 * Gets the graphics configuration images should be made compatible with.
+	 * @return The configuration of the game window if it exists, otherwise that of the default screen; null if running headless
+	 */
+	private static GraphicsConfiguration getGraphicsConfiguration () {
+		if (RenderLoop.wind != null && RenderLoop.wind.getGraphicsConfiguration () != null) {
+			return RenderLoop.wind.getGraphicsConfiguration ();
+		}
+		if (GraphicsEnvironment.isHeadless ()) {
+			return null;
+		}
+		return GraphicsEnvironment.getLocalGraphicsEnvironment ().getDefaultScreenDevice ().getDefaultConfiguration ();
+	}
+	
+	/**
+	 * Returns true if the given image is already in the format that would be created for it.
+	 */
+	private static boolean isCompatible (BufferedImage image, int transparency) {
+		return image.getType () == getCompatibleType (transparency);
+	}
+	
+	/**
+	 * Returns true if the given image type stores each pixel in a single int.
+	 */
+	private static boolean isIntPacked (int type) {
+		return type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_INT_ARGB_PRE;
+	}
+	
+	/**
+	 * Gets the image type used when there is no display to be compatible with.
+	 */
+	private static int getFallbackType (int transparency) {
+		return transparency == Transparency.OPAQUE ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
+	}
+}
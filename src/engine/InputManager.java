@@ -1,6 +1,7 @@
 package engine;
 
 import java.awt.Component;
+import java.awt.Rectangle;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.awt.event.MouseEvent;
@@ -233,8 +234,12 @@ public class InputManager {
 		}
 		
 		private void updateMouseCoords (MouseEvent e) {
-			cursorX = ((double)e.getX ()) / mouseComponent.getWidth ();
-			cursorY = ((double)e.getY ()) / mouseComponent.getHeight ();
+			Rectangle area = new Rectangle (0, 0, mouseComponent.getWidth (), mouseComponent.getHeight ());
+			if (keyComponent instanceof GameWindow) {
+				area = ((GameWindow)keyComponent).getPresentArea ();
+			}
+			cursorX = ((double)(e.getX () - area.x)) / area.width;
+			cursorY = ((double)(e.getY () - area.y)) / area.height;
 		}
 		
 		private int getButtonIndex (int button) {
@@ -0,0 +1,211 @@
+package engine;
+
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Upscales an int-packed image by a whole-number factor with nearest-neighbor sampling into an output image of the same format.
+ * Each source row is expanded once by repeating every pixel, and the expanded row is then copied down with System.arraycopy for the remaining output rows, so scaling is little more than a memory copy.
+ * The rows can optionally be split between several threads.
+ * @author nathan
+ *
+ */
+public class IntegerScaler {
+	
+	/**
+	 * The image being scaled
+	 */
+	private BufferedImage source;
+	/**
+	 * The pixel data of the image being scaled
+	 */
+	private int[] sourcePixels;
+	/**
+	 * The scaled image
+	 */
+	private BufferedImage output;
+	/**
+	 * The pixel data of the scaled image
+	 */
+	private int[] outputPixels;
+	/**
+	 * The factor the image is scaled by
+	 */
+	private int scale;
+	/**
+	 * The threads which scale all but the last group of rows; null if scaling on a single thread
+	 */
+	private ExecutorService workers;
+	/**
+	 * The pending work of each worker in the current call to scale
+	 */
+	private Future<?>[] pending;
+	
+	/**
+	 * Constructs a new IntegerScaler which scales the given image on the calling thread.
+	 * @param source The image to scale; must be of type TYPE_INT_RGB or TYPE_INT_ARGB
+	 * @param scale The factor to scale by; at least 1
+	 */
+	public IntegerScaler (BufferedImage source, int scale) {
+		this (source, scale, 1);
+	}
+	
+	/**
+	 * Constructs a new IntegerScaler which scales the given image.
+	 * @param source The image to scale; must be of type TYPE_INT_RGB or TYPE_INT_ARGB
+	 * @param scale The factor to scale by; at least 1
+	 * @param threads The number of threads to split the rows between
+	 */
+	public IntegerScaler (BufferedImage source, int scale, int threads) {
+		if (source.getType () != BufferedImage.TYPE_INT_RGB && source.getType () != BufferedImage.TYPE_INT_ARGB) {
+			throw new IllegalArgumentException ("IntegerScaler requires a TYPE_INT_RGB or TYPE_INT_ARGB image, not " + ImageConverter.describe (source));
+		}
+		if (scale < 1) {
+			throw new IllegalArgumentException ("Scale factor must be at least 1, not " + scale);
+		}
+		this.source = source;
+		this.scale = scale;
+		sourcePixels = ((DataBufferInt)source.getRaster ().getDataBuffer ()).getData ();
+		int transparency = source.getType () == BufferedImage.TYPE_INT_RGB ? Transparency.OPAQUE : Transparency.TRANSLUCENT;
+		output = ImageConverter.createCompatible (source.getWidth () * scale, source.getHeight () * scale, transparency);
+		if (output.getType () != source.getType ()) {
+			output = new BufferedImage (output.getWidth (), output.getHeight (), source.getType ());
+		}
+		outputPixels = ((DataBufferInt)output.getRaster ().getDataBuffer ()).getData ();
+		threads = Math.max (Math.min (threads, source.getHeight ()), 1);
+		pending = new Future<?>[threads - 1];
+		if (threads > 1) {
+			workers = Executors.newFixedThreadPool (threads - 1, new ThreadFactory () {
+				@Override
+				public Thread newThread (Runnable task) {
+					Thread thread = new Thread (task, "IntegerScaler");
+					thread.setDaemon (true);
+					return thread;
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Gets the largest whole-number factor an image can be scaled by and still fit in the given area.
+	 * @param sourceWidth The width of the image
+	 * @param sourceHeight The height of the image
+	 * @param areaWidth The width of the area to fit in
+	 * @param areaHeight The height of the area to fit in
+	 * @return The largest scale factor which fits; 0 if the image is larger than the area
+	 */
+	public static int getLargestScale (int sourceWidth, int sourceHeight, int areaWidth, int areaHeight) {
+		return Math.min (areaWidth / sourceWidth, areaHeight / sourceHeight);
+	}
+	
+	/**
+	 * Scales the whole source image into the output image.
+	 */
+	public void scale () {
+		scale (0, 0, source.getWidth (), source.getHeight ());
+	}
+	
+	/**
+	 * Scales the given region of the source image into the corresponding region of the output image.
+	 * @param x The x-coordinate of the region, in source pixels
+	 * @param y The y-coordinate of the region, in source pixels
+	 * @param width The width of the region, in source pixels
+	 * @param height The height of the region, in source pixels
+	 */
+	public void scale (final int x, int y, final int width, int height) {
+		int y1 = Math.max (y, 0);
+		int y2 = Math.min (y + height, source.getHeight ());
+		if (width <= 0 || y1 >= y2) {
+			return;
+		}
+		int groups = pending.length + 1;
+		for (int i = 0; i < groups - 1; i ++) {
+			final int groupY1 = y1 + (y2 - y1) * i / groups;
+			final int groupY2 = y1 + (y2 - y1) * (i + 1) / groups;
+			pending [i] = workers.submit (new Runnable () {
+				@Override
+				public void run () {
+					scaleRows (x, width, groupY1, groupY2);
+				}
+			});
+		}
+		scaleRows (x, width, y1 + (y2 - y1) * (groups - 1) / groups, y2);
+		for (int i = 0; i < groups - 1; i ++) {
+			try {
+				pending [i].get ();
+			} catch (InterruptedException e) {
+				Thread.currentThread ().interrupt ();
+			} catch (ExecutionException e) {
+				e.printStackTrace ();
+			}
+			pending [i] = null;
+		}
+	}
+	
+	/**
+	 * Scales the given columns of the given rows of the source image.
+	 */
+	private void scaleRows (int x, int width, int y1, int y2) {
+		int sourceWidth = source.getWidth ();
+		int x1 = Math.max (x, 0);
+		int x2 = Math.min (x + width, sourceWidth);
+		if (x1 >= x2) {
+			return;
+		}
+		int outputWidth = sourceWidth * scale;
+		int rowLength = (x2 - x1) * scale;
+		for (int row = y1; row < y2; row ++) {
+			int sourceIndex = row * sourceWidth + x1;
+			int outputStart = row * scale * outputWidth + x1 * scale;
+			int outputIndex = outputStart;
+			for (int i = x1; i < x2; i ++) {
+				int color = sourcePixels [sourceIndex ++];
+				for (int j = 0; j < scale; j ++) {
+					outputPixels [outputIndex ++] = color;
+				}
+			}
+			for (int j = 1; j < scale; j ++) {
+				System.arraycopy (outputPixels, outputStart, outputPixels, outputStart + j * outputWidth, rowLength);
+			}
+		}
+	}
+	
+	/**
+	 * Gets the image being scaled.
+	 * @return The source image
+	 */
+	public BufferedImage getSource () {
+		return source;
+	}
+	
+	/**
+	 * Gets the scaled image, as of the last call to scale.
+	 * @return The output image
+	 */
+	public BufferedImage getOutput () {
+		return output;
+	}
+	
+	/**
+	 * Gets the factor the source image is scaled by.
+	 * @return The scale factor
+	 */
+	public int getScale () {
+		return scale;
+	}
+	
+	/**
+	 * Stops the worker threads. This IntegerScaler cannot be used afterwards.
+	 */
+	public void shutdown () {
+		if (workers != null) {
+			workers.shutdown ();
+		}
+	}
+}
@@ -24,13 +24,33 @@ public class ObjectHandler {
 	 */
 	private static HashIndexedTree<String, LinkedList<GameObject>> classTrees = new HashIndexedTree <String, LinkedList<GameObject>> ("GameObject", null);
 	
+	/**
+	 * The thread running callAll, on which sprite draws are ignored until the step is over; null if no step is running
+	 */
+	private static volatile Thread steppingThread;
+	
+	/**
+	 * The room drawn by the last call to renderAll in dirty rendering mode
+	 */
+	private static Room drawnRoom;
+	
+	/**
+	 * The x-coordinate of the view drawn by the last call to renderAll in dirty rendering mode
+	 */
+	private static int drawnViewX;
+	
+	/**
+	 * The y-coordinate of the view drawn by the last call to renderAll in dirty rendering mode
+	 */
+	private static int drawnViewY;
+	
 	/**
 	 * ObjectHandler cannot be constructed.
 	 */
 	private ObjectHandler () {
 		
 	}
-
+	
 	/**
 	 * Gets a list of all the objects of the given type.
 	 * @param objName The name of the object's class, as given by getClass().getSimpleName() by default
@@ -181,31 +201,100 @@ public class ObjectHandler {
 	}
 	
 	/**
-	 * Calls the frameEvent method of all GameObjects in ObjectHandler
+	 * Calls the frameEvent method of all GameObjects in ObjectHandler. Only runs their logic; sprites drawn on this thread during the step are ignored, and drawing is left to renderAll.
 	 */
 	public static void callAll () {
-		LinkedList<LinkedList<GameObject>> allObjs = getChildrenByName ("GameObject");
-		Iterator<LinkedList<GameObject>> listIter = allObjs.iterator ();
-		while (listIter.hasNext ()) {
-			LinkedList<GameObject> workingList = listIter.next ();
-			Iterator<GameObject> elementIter = workingList.iterator ();
-			while (elementIter.hasNext ()) {
-				elementIter.next ().draw ();
+		steppingThread = Thread.currentThread ();
+		try {
+			LinkedList<LinkedList<GameObject>> allObjs = getChildrenByName ("GameObject");
+			Iterator<LinkedList<GameObject>> listIter = allObjs.iterator ();
+			while (listIter.hasNext ()) {
+				LinkedList<GameObject> workingList = listIter.next ();
+				Iterator<GameObject> elementIter = workingList.iterator ();
+				while (elementIter.hasNext ()) {
+					elementIter.next ().frameEvent ();
+				}
 			}
+		} finally {
+			steppingThread = null;
 		}
 	}
 	
 	/**
-	 * Calls the draw method of all GameObjects in ObjectHandler
+	 * Returns true if the calling thread is running the GameObjects' logic in callAll, in which case anything it draws is ignored.
+	 * @return Whether sprite draws on this thread should be skipped
+	 */
+	static boolean isStepping () {
+		return Thread.currentThread () == steppingThread;
+	}
+	
+	/**
+	 * Draws the current room, then calls the draw method of all GameObjects in ObjectHandler which are within the room's view.
+	 * In dirty rendering mode, only the dirty region of the view is redrawn, and only the GameObjects which overlap it are drawn.
 	 */
 	public static void renderAll () {
+		Room room = GameLoop.getRoom ();
+		int[] resolution = RenderLoop.wind.getResolution ();
+		int viewX = 0;
+		int viewY = 0;
+		if (room != null) {
+			viewX = room.getViewX ();
+			viewY = room.getViewY ();
+		}
+		int drawX = viewX;
+		int drawY = viewY;
+		int drawWidth = resolution [0];
+		int drawHeight = resolution [1];
 		LinkedList<LinkedList<GameObject>> allObjs = getChildrenByName ("GameObject");
-		Iterator<LinkedList<GameObject>> listIter = allObjs.iterator ();
+		if (RenderLoop.wind.isDirtyRendering ()) {
+			if (room != drawnRoom || viewX != drawnViewX || viewY != drawnViewY) {
+				RenderLoop.wind.markAllDirty ();
+				drawnRoom = room;
+				drawnViewX = viewX;
+				drawnViewY = viewY;
+			}
+			Iterator<LinkedList<GameObject>> listIter = allObjs.iterator ();
+			while (listIter.hasNext ()) {
+				Iterator<GameObject> elementIter = listIter.next ().iterator ();
+				while (elementIter.hasNext ()) {
+					elementIter.next ().markChanges (viewX, viewY);
+				}
+			}
+			Rectangle region = RenderLoop.wind.beginDirtyFrame ();
+			if (region == null) {
+				return;
+			}
+			drawX = viewX + region.x;
+			drawY = viewY + region.y;
+			drawWidth = region.width;
+			drawHeight = region.height;
+		}
+		drawAll (resolution [0], resolution [1], drawX, drawY, drawWidth, drawHeight);
+	}
+	
+	/**
+	 * Draws the current room, then calls the draw method of all GameObjects in ObjectHandler which overlap the given area of the room.
+	 * @param viewWidth The width of the room's view
+	 * @param viewHeight The height of the room's view
+	 * @param drawX The x-coordinate of the area to draw the GameObjects in, in room coordinates
+	 * @param drawY The y-coordinate of the area to draw the GameObjects in, in room coordinates
+	 * @param drawWidth The width of the area to draw the GameObjects in
+	 * @param drawHeight The height of the area to draw the GameObjects in
+	 */
+	static void drawAll (int viewWidth, int viewHeight, int drawX, int drawY, int drawWidth, int drawHeight) {
+		Room room = GameLoop.getRoom ();
+		if (room != null) {
+			room.frameEvent (viewWidth, viewHeight);
+		}
+		Iterator<LinkedList<GameObject>> listIter = getChildrenByName ("GameObject").iterator ();
 		while (listIter.hasNext ()) {
 			LinkedList<GameObject> workingList = listIter.next ();
 			Iterator<GameObject> elementIter = workingList.iterator ();
 			while (elementIter.hasNext ()) {
-				elementIter.next ().draw ();
+				GameObject working = elementIter.next ();
+				if (working.isInView (drawX, drawY, drawWidth, drawHeight)) {
+					working.draw ();
+				}
 			}
 		}
 	}
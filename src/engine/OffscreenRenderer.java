@@ -0,0 +1,152 @@
+package engine;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Renders frames of the current room and GameObjects to an image in memory, without a GameWindow or a display.
+ * Frames can be hashed to check that different rendering paths produce identical pixels, or written out as PNG files, so the renderer can be exercised in tests and benchmarks.
+ * While a frame is being recorded, all sprite draws on every thread go to this renderer, so it should not be used while the RenderLoop is running.
+ * @author nathan
+ *
+ */
+public class OffscreenRenderer {
+	
+	/**
+	 * The queue of the renderer currently recording a frame; null if no frame is being recorded
+	 */
+	private static volatile RenderQueue recordingQueue;
+	/**
+	 * Ensures only one frame is recorded at a time
+	 */
+	private static final Object recordLock = new Object ();
+	
+	/**
+	 * The image frames are rendered to
+	 */
+	private BufferedImage image;
+	/**
+	 * The pixel data of the image frames are rendered to
+	 */
+	private int[] pixels;
+	/**
+	 * The queue frames are recorded in
+	 */
+	private RenderQueue queue;
+	/**
+	 * The backend used to draw recorded frames
+	 */
+	private RenderBackend backend;
+	/**
+	 * The number of frames rendered
+	 */
+	private int frameCount;
+	
+	/**
+	 * Constructs a new OffscreenRenderer which renders frames of the given size with a RasterBackend.
+	 * @param width The width of the frames, in pixels
+	 * @param height The height of the frames, in pixels
+	 */
+	public OffscreenRenderer (int width, int height) {
+		image = new BufferedImage (width, height, BufferedImage.TYPE_INT_RGB);
+		pixels = ((DataBufferInt)image.getRaster ().getDataBuffer ()).getData ();
+		queue = new RenderQueue ();
+		backend = new RasterBackend ();
+		frameCount = 0;
+	}
+	
+	/**
+	 * Gets the queue sprite draws should be recorded in instead of the window's.
+	 * @return The queue of the renderer currently recording a frame; null if no frame is being recorded
+	 */
+	static RenderQueue getRecordingQueue () {
+		return recordingQueue;
+	}
+	
+	/**
+	 * Sets the backend used to draw recorded frames.
+	 * @param backend The backend to use
+	 */
+	public void setBackend (RenderBackend backend) {
+		this.backend = backend;
+	}
+	
+	/**
+	 * Renders a frame of the current room and all GameObjects in its view, using the current time for animations.
+	 * @return The image the frame was rendered to; overwritten by the next frame
+	 */
+	public BufferedImage renderFrame () {
+		return renderFrame (System.currentTimeMillis ());
+	}
+	
+	/**
+	 * Renders a frame of the current room and all GameObjects in its view as it would appear at the given time. Passing the same times gives the same animation frames on every run.
+	 * @param frameTime The time to render the frame at, in milliseconds
+	 * @return The image the frame was rendered to; overwritten by the next frame
+	 */
+	public BufferedImage renderFrame (long frameTime) {
+		Arrays.fill (pixels, GameWindow.BACKGROUND_COLOR.getRGB ());
+		synchronized (recordLock) {
+			RenderLoop.setFrameStartTime (frameTime);
+			recordingQueue = queue;
+			try {
+				Room room = GameLoop.getRoom ();
+				int viewX = room == null ? 0 : room.getViewX ();
+				int viewY = room == null ? 0 : room.getViewY ();
+				ObjectHandler.drawAll (image.getWidth (), image.getHeight (), viewX, viewY, image.getWidth (), image.getHeight ());
+			} finally {
+				recordingQueue = null;
+			}
+		}
+		backend.render (queue, image);
+		queue.clear ();
+		frameCount ++;
+		return image;
+	}
+	
+	/**
+	 * Gets the image frames are rendered to.
+	 * @return The image holding the last rendered frame
+	 */
+	public BufferedImage getImage () {
+		return image;
+	}
+	
+	/**
+	 * Gets the number of frames this OffscreenRenderer has rendered.
+	 * @return The frame count
+	 */
+	public int getFrameCount () {
+		return frameCount;
+	}
+	
+	/**
+	 * Computes a 64-bit FNV-1a hash of the pixels of the last rendered frame. Frames with the same hash are, for practical purposes, pixel-identical.
+	 * @return The hash of the last frame
+	 */
+	public long hashFrame () {
+		long hash = 0xCBF29CE484222325L;
+		for (int i = 0; i < pixels.length; i ++) {
+			int color = pixels [i] & 0xFFFFFF;
+			for (int j = 0; j < 24; j += 8) {
+				hash ^= (color >>> j) & 0xFF;
+				hash *= 0x100000001B3L;
+			}
+		}
+		return hash;
+	}
+	
+	/**
+	 * Writes the last rendered frame to a PNG file.
+	 * @param path The filepath to write to
+	 * @throws IOException If the file could not be written
+	 */
+	public void writePNG (String path) throws IOException {
+		ImageIO.write (image, "png", new File (path));
+	}
+}
@@ -0,0 +1,100 @@
+package engine;
+
+/**
+ * A binary min-heap of int values ordered by int priorities, used by the pathfinders. Entries are packed into a single long[] so that searches don't allocate per node.
+ * @author nathan
+ *
+ */
+class PathQueue {
+	
+	/**
+	 * The heap entries, with the priority in the upper 32 bits and the value in the lower 32 bits
+	 */
+	private long[] heap;
+	/**
+	 * The number of entries currently in the heap
+	 */
+	private int size;
+	
+	/**
+	 * Constructs a new PathQueue with the given initial capacity.
+	 * @param capacity The number of entries to make room for initially
+	 */
+	public PathQueue (int capacity) {
+		heap = new long[Math.max (capacity, 16)];
+		size = 0;
+	}
+	
+	/**
+	 * Adds a value to the queue with the given priority. Priorities must be non-negative.
+	 * @param value The value to add
+	 * @param priority The priority of the value; lower priorities are removed first
+	 */
+	public void add (int value, int priority) {
+		if (size == heap.length) {
+			long[] newHeap = new long[heap.length * 2];
+			System.arraycopy (heap, 0, newHeap, 0, size);
+			heap = newHeap;
+		}
+		long entry = ((long)priority << 32) | (value & 0xFFFFFFFFL);
+		int index = size ++;
+		while (index > 0) {
+			int parent = (index - 1) >> 1;
+			if (heap [parent] <= entry) {
+				break;
+			}
+			heap [index] = heap [parent];
+			index = parent;
+		}
+		heap [index] = entry;
+	}
+	
+	/**
+	 * Gets the priority of the entry at the front of the queue.
+	 * @return The lowest priority in the queue
+	 */
+	public int peekPriority () {
+		return (int)(heap [0] >>> 32);
+	}
+	
+	/**
+	 * Removes the entry at the front of the queue.
+	 * @return The value with the lowest priority
+	 */
+	public int poll () {
+		int result = (int)heap [0];
+		long last = heap [-- size];
+		int index = 0;
+		while (true) {
+			int child = (index << 1) + 1;
+			if (child >= size) {
+				break;
+			}
+			if (child + 1 < size && heap [child + 1] < heap [child]) {
+				child ++;
+			}
+			if (heap [child] >= last) {
+				break;
+			}
+			heap [index] = heap [child];
+			index = child;
+		}
+		heap [index] = last;
+		return result;
+	}
+	
+	/**
+	 * Returns true if the queue has no entries.
+	 * @return Whether the queue is empty
+	 */
+	public boolean isEmpty () {
+		return size == 0;
+	}
+	
+	/**
+	 * Removes all entries from the queue, keeping its capacity.
+	 */
+	public void clear () {
+		size = 0;
+	}
+}
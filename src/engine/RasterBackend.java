@@ -0,0 +1,25 @@
+package engine;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * A RenderBackend which draws the commands by writing directly to the target's pixel data with a RasterBlitter.
+ * @author nathan
+ *
+ */
+public class RasterBackend implements RenderBackend {
+	
+	/**
+	 * The blitter for the last image drawn to
+	 */
+	private RasterBlitter blitter;
+	
+	@Override
+	public void render (RenderQueue queue, BufferedImage target) {
+		if (blitter == null || blitter.getTarget () != target) {
+			blitter = new RasterBlitter (target);
+		}
+		queue.prepare ();
+		queue.replay (blitter);
+	}
+}
@@ -0,0 +1,18 @@
+package engine;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Draws the commands recorded in a RenderQueue to an image. Used by GameWindow to draw frames recorded by the game logic thread, and interchangeable so that frames can be drawn with Java2D, in software or offscreen.
+ * @author nathan
+ *
+ */
+public interface RenderBackend {
+	
+	/**
+	 * Draws all the commands in the given queue to the given image, in the queue's sorted order. Must not modify the commands in the queue, since a frame may be drawn more than once.
+	 * @param queue The commands to draw
+	 * @param target The image to draw to
+	 */
+	public void render (RenderQueue queue, BufferedImage target);
+}
@@ -42,8 +42,14 @@ public class RenderLoop {
 			//Get the time before refreshing the window
 			long startTime = System.nanoTime ();
 			frameTime = System.currentTimeMillis ();
-			//Render the window
-			ObjectHandler.renderAll ();
+			//Swap in any assets changed on disk, if hot reloading is running
+			HotReloader.applyPending ();
+			//Render the window through one graphics object for the whole frame, disposed when the frame is presented; if rendering is deferred, the frame was already recorded by the game logic thread
+			wind.beginFrame ();
+			if (!wind.isDeferredRendering ()) {
+				ObjectHandler.renderAll ();
+			}
+			wind.refresh ();
 			//Calculate elapsed time and time to sleep for
 			lastUpdate = System.nanoTime ();
 			long elapsedTime = lastUpdate - startTime;
@@ -71,4 +77,12 @@ public class RenderLoop {
 	public static long frameStartTime () {
 		return frameTime;
 	}
+	
+	/**
+	 * Sets the time used as the start of the current frame, for rendering frames outside of the render loop.
+	 * @param time The frame start time, in milliseconds
+	 */
+	static void setFrameStartTime (long time) {
+		frameTime = time;
+	}
 }
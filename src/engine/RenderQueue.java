@@ -0,0 +1,176 @@
+package engine;
+
+import java.awt.Graphics;
+import java.util.Arrays;
+
+/**
+ * Records sprite draws for a frame and replays them by depth, from highest to lowest. Draws with the same depth keep the order they were recorded in, so overlapping sprites at one depth are drawn the same way as when they are drawn immediately. Commands are stored in preallocated arrays which only grow when a frame records more draws than any before it.
+ * Sprites are referenced directly rather than by a numeric id, so that sprites no longer in use can still be garbage collected.
+ * @author nathan
+ *
+ */
+public class RenderQueue {
+	
+	/**
+	 * The number of ints used to store each command
+	 */
+	private static final int STRIDE = 4;
+	
+	/**
+	 * The sprite drawn by each command
+	 */
+	private Sprite[] sprites;
+	/**
+	 * The frame, x-coordinate, y-coordinate and depth of each command, in that order
+	 */
+	private int[] commands;
+	/**
+	 * The sort keys of the commands, rebuilt on each flush
+	 */
+	private long[] keys;
+	/**
+	 * The number of recorded commands
+	 */
+	private int size;
+	
+	/**
+	 * Constructs a new, empty RenderQueue.
+	 */
+	public RenderQueue () {
+		sprites = new Sprite[1024];
+		commands = new int[1024 * STRIDE];
+		keys = new long[1024];
+		size = 0;
+	}
+	
+	/**
+	 * Records a draw of the given frame of a sprite.
+	 * @param sprite The sprite to draw
+	 * @param frame The frame of the sprite to draw
+	 * @param x The x-coordinate to draw at
+	 * @param y The y-coordinate to draw at
+	 * @param depth The depth to draw at; draws with a higher depth are drawn first, i.e. further back
+	 */
+	public void add (Sprite sprite, int frame, int x, int y, int depth) {
+		if (size == sprites.length) {
+			sprites = Arrays.copyOf (sprites, size * 2);
+			commands = Arrays.copyOf (commands, size * 2 * STRIDE);
+			keys = new long[size * 2];
+		}
+		sprites [size] = sprite;
+		int index = size * STRIDE;
+		commands [index] = frame;
+		commands [index + 1] = x;
+		commands [index + 2] = y;
+		commands [index + 3] = depth;
+		size ++;
+	}
+	
+	/**
+	 * Draws all the recorded commands in sorted order through the current frame's graphics object, then clears the queue.
+	 */
+	public void flush () {
+		sort ();
+		Graphics bufferGraphics = RenderLoop.wind.getBufferGraphics ();
+		for (int i = 0; i < size; i ++) {
+			int command = (int)(keys [i] & 0xFFFFFF);
+			int index = command * STRIDE;
+			sprites [command].render (bufferGraphics, commands [index + 1], commands [index + 2], commands [index]);
+		}
+		clear ();
+	}
+	
+	/**
+	 * Sorts the recorded commands and loads the pixels of every frame they draw, so that replay only reads shared state and can run on several threads at once.
+	 */
+	void prepare () {
+		sort ();
+		for (int i = 0; i < size; i ++) {
+			sprites [i].getPixels (commands [i * STRIDE]);
+		}
+	}
+	
+	/**
+	 * Draws all the recorded commands in the order set by the last call to prepare, through the given blitter and within its clipping rectangle. Does not modify the queue.
+	 * @param blitter The blitter to draw with
+	 */
+	void replay (RasterBlitter blitter) {
+		for (int i = 0; i < size; i ++) {
+			int command = (int)(keys [i] & 0xFFFFFF);
+			int index = command * STRIDE;
+			blitter.draw (sprites [command], commands [index], commands [index + 1], commands [index + 2]);
+		}
+	}
+	
+	/**
+	 * Discards all the recorded commands.
+	 */
+	public void clear () {
+		Arrays.fill (sprites, 0, size, null);
+		size = 0;
+	}
+	
+	/**
+	 * Gets the number of recorded commands.
+	 * @return The number of commands in the queue
+	 */
+	public int size () {
+		return size;
+	}
+	
+	/**
+	 * Gets the sprite drawn by the command at the given position in sorted order.
+	 * @param i The position of the command, as of the last call to sort
+	 * @return The sprite to draw
+	 */
+	public Sprite getSprite (int i) {
+		return sprites [(int)(keys [i] & 0xFFFFFF)];
+	}
+	
+	/**
+	 * Gets the frame drawn by the command at the given position in sorted order.
+	 * @param i The position of the command, as of the last call to sort
+	 * @return The frame of the sprite to draw
+	 */
+	public int getFrame (int i) {
+		return commands [(int)(keys [i] & 0xFFFFFF) * STRIDE];
+	}
+	
+	/**
+	 * Gets the x-coordinate of the command at the given position in sorted order.
+	 * @param i The position of the command, as of the last call to sort
+	 * @return The x-coordinate to draw at
+	 */
+	public int getX (int i) {
+		return commands [(int)(keys [i] & 0xFFFFFF) * STRIDE + 1];
+	}
+	
+	/**
+	 * Gets the y-coordinate of the command at the given position in sorted order.
+	 * @param i The position of the command, as of the last call to sort
+	 * @return The y-coordinate to draw at
+	 */
+	public int getY (int i) {
+		return commands [(int)(keys [i] & 0xFFFFFF) * STRIDE + 2];
+	}
+	
+	/**
+	 * Gets the depth of the command at the given position in sorted order.
+	 * @param i The position of the command, as of the last call to sort
+	 * @return The depth to draw at
+	 */
+	public int getDepth (int i) {
+		return commands [(int)(keys [i] & 0xFFFFFF) * STRIDE + 3];
+	}
+	
+	/**
+	 * Builds and sorts the sort keys of the recorded commands, which sets the order they are read and drawn in. Each key holds the inverted depth in its upper bits and the index of the command, i.e. the order it was recorded in, in its lower bits.
+	 */
+	public void sort () {
+		for (int i = 0; i < size; i ++) {
+			long depth = (long)Integer.MAX_VALUE - commands [i * STRIDE + 3];
+			keys [i] = (depth << 31) | i;
+		}
+		Arrays.sort (keys, 0, size);
+	}
+}
@@ -1,27 +1,40 @@
 package engine;
 
 import java.awt.Rectangle;
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
 
 public class Room {
+	public static final int TILE_DEPTH = 1000; //The depth of the first tile layer; each following layer is one deeper
+	public static final int LEGACY_VERSION = 0x32; //The CMF version stored as one continuous bit stream
+	public static final int CHUNKED_VERSION = 0x33; //The CMF version with byte-aligned fields and tiles stored as compressed chunks, as written by CMFWriter
 	private Sprite[] tileList;
+	private Sprite[] tilesets; //The tileset sprites the tiles are taken from, in the order they are listed in the map
+	private short[] tilesUsed; //The index of each tile across the frames of all the tilesets
+	private String path; //The filepath of the loaded map, or null if none has been loaded
+	private String tilesetNames; //The comma-separated names of the tilesets of the loaded map
+	private int[] objectPlacements; //The object index and tile coordinates of each object placed in the loaded map
+	private AssetScope assets; //Holds the tilesets of the loaded map until the room is unloaded
+	private boolean streaming; //Whether the next map loaded is streamed in chunks around the view
+	private ChunkStreamer streamer; //Holds the tiles of the loaded map if it is streamed, in which case tileData is null
 	private String[] tileIdList;
 	private String[] objectList;
 	private short[][][] tileData;
 	private boolean[] collisionData;
+	private int[] costData;
 	private int levelWidth;
 	private int levelHeight;
 	private int viewX;
 	private int viewY;
-	private int readBit;
-	private byte[] inData;
 	private static double[] hitboxCorners = new double[] {0, 0, 1, 0, 1, 1, 0, 1, 0, 0};
 	private TileAttributesList tileAttributesList;
+	private ArrayList<FlowField> flowFields = new ArrayList<FlowField> ();
+	private HierarchicalPathfinder pathfinder;
+	private TileChunkCache chunkCache;
 	public Room () {
 		//A fairly generic constructor
 		tileAttributesList = new TileAttributesList (MapConstants.tileList);
@@ -30,27 +43,7 @@ public class Room {
 		levelHeight = 32;
 		viewX = 0;
 		viewY = 0;
-		readBit = 0;
-	}
-	private int readBits (int num) {
-		//Reads a number of bits from the byte[] inData equal to num and returns them as an int
-		int result = 0;
-		int mask;
-		while (num > 0) {
-			if (num >= 8 - (readBit % 8)) {
-				int numbits = 8 - (readBit % 8);
-				mask = (1 << numbits) - 1;
-				result = result + ((inData [readBit >> 3] & mask) << (num - numbits));
-				num = num - numbits;
-				readBit += numbits;
-			} else {
-				mask = ((1 << num) - 1) << (8 - (readBit % 8) - num);
-				result = result + ((inData [readBit >> 3] & mask) >> (8 - (readBit % 8) - num));
-				readBit += num;
-				num = 0;
-			}
-		}
-		return result;
+		chunkCache = new TileChunkCache (this);
 	}
 	public boolean isColliding (double x1, double y1, double x2, double y2) {
 		if (getCollidingCoords (x1, y1, x2, y2) != null) {
@@ -243,217 +236,534 @@ public class Room {
 	}
 	public short getTileId (int x, int y) {
 		//Returns the numerical tile ID of a give object
-		return tileData [0][x][y];
+		return getTile (0, x, y);
+	}
+	public boolean isSolid (int x, int y) {
+		//Returns true if the tile at (x, y) is solid; tiles outside of the room are considered solid
+		if (x < 0 || x >= levelWidth || y < 0 || y >= levelHeight) {
+			return true;
+		}
+		return collisionData [getTileId (x, y)];
+	}
+	public int getTileCost (int x, int y) {
+		//Returns the pathfinding cost of moving onto the tile at (x, y), as given by its TileData
+		return costData [getTileId (x, y)];
+	}
+	public void setTile (int layer, int x, int y, short id) {
+		//Sets the tile at (x, y) on the given layer to the tile with the given numerical ID; layer 0 is used for collision
+		if (streamer != null) {
+			streamer.setTile (layer, x, y, id);
+		} else {
+			tileData [layer][x][y] = id;
+		}
+		if (chunkCache != null) {
+			chunkCache.invalidate (layer, x, y);
+		}
+		if (RenderLoop.wind != null && RenderLoop.wind.isDirtyRendering ()) {
+			RenderLoop.wind.markDirty (x * 16 - viewX, y * 16 - viewY, 16, 16);
+		}
+		if (layer == 0) {
+			if (pathfinder != null) {
+				pathfinder.refine (x, y);
+			}
+			for (int i = 0; i < flowFields.size (); i ++) {
+				flowFields.get (i).invalidate (x, y);
+			}
+		}
+	}
+	public int[] findPath (int x1, int y1, int x2, int y2) {
+		//Returns the tiles on a path from (x1, y1) to (x2, y2) in the format [x1, y1, x2, y2...], or null if there is no path
+		if (pathfinder == null) {
+			pathfinder = new HierarchicalPathfinder (this);
+		}
+		return pathfinder.findPath (x1, y1, x2, y2);
+	}
+	public FlowField createFlowField () {
+		//Creates a FlowField over this room; it will be invalidated whenever this room's tiles change
+		FlowField field = new FlowField (this);
+		flowFields.add (field);
+		return field;
+	}
+	public void removeFlowField (FlowField field) {
+		//Stops updating the given FlowField when this room's tiles change, and disposes it, stopping its background thread
+		flowFields.remove (field);
+		field.dispose ();
+	}
+	public short getTile (int layer, int x, int y) {
+		//Returns the numerical tile ID at (x, y) on the given layer
+		if (streamer != null) {
+			return streamer.getTile (layer, x, y);
+		}
+		return tileData [layer][x][y];
+	}
+	public Sprite getTileSprite (short id) {
+		//Returns the sprite used to draw tiles with the given numerical ID
+		return tileList [id];
+	}
+	public int getLayerCount () {
+		//Returns the number of tile layers in the room
+		if (streamer != null) {
+			return streamer.getLayerCount ();
+		}
+		return tileData.length;
+	}
+	public void setStreaming (boolean enabled) {
+		//Sets whether maps loaded after this call are streamed in chunks around the view, rather than decoded all at once
+		//A streamed map keeps only the chunks near the view decoded, and creates the objects placed in each chunk only while it is loaded
+		streaming = enabled;
+	}
+	public boolean isStreaming () {
+		//Returns true if the loaded map is streamed in chunks around the view
+		return streamer != null;
+	}
+	public ChunkStreamer getStreamer () {
+		//Returns the chunk streamer holding the tiles of the loaded map, or null if the map is not streamed
+		return streamer;
+	}
+	public void updateStreaming () {
+		int[] resolution = RenderLoop.wind.getResolution ();
+		updateStreaming (resolution [0], resolution [1]);
+	}
+	public void updateStreaming (int viewWidth, int viewHeight) {
+		//Loads the chunks around a view of the given size and evicts those far from it; does nothing if the map is not streamed
+		//Creates and retires objects, so this is called by the game loop before each step
+		if (streamer != null) {
+			streamer.update (viewX, viewY, viewWidth, viewHeight);
+		}
+	}
+	public void setChunkCaching (boolean enabled) {
+		//Sets whether the tile layers are drawn from a cache of pre-rendered chunks (the default) or tile by tile
+		if (enabled && chunkCache == null) {
+			chunkCache = new TileChunkCache (this);
+		} else if (!enabled) {
+			chunkCache = null;
+		}
+	}
+	public TileChunkCache getChunkCache () {
+		//Returns the cache of pre-rendered chunks used to draw this room, or null if chunk caching is disabled
+		return chunkCache;
 	}
 	public void frameEvent () {
-		//Renders the room
-		for (int layer = tileData.length - 1; layer >= 0; layer --) {
-			for (int i = 0; i < levelWidth; i ++) {
-				for (int j = 0; j < levelHeight; j ++) {
-					tileList [tileData [layer][i][j]].draw (i * 16 - viewX, j * 16 - viewY);
+		int[] resolution = RenderLoop.wind.getResolution ();
+		frameEvent (resolution [0], resolution [1]);
+	}
+	public void frameEvent (int viewWidth, int viewHeight) {
+		//Renders the tiles of the room which are within a view of the given size
+		if (chunkCache != null) {
+			chunkCache.draw (viewX, viewY, viewWidth, viewHeight);
+			return;
+		}
+		int x1 = Math.max (Math.floorDiv (viewX, 16), 0);
+		int y1 = Math.max (Math.floorDiv (viewY, 16), 0);
+		int x2 = Math.min (Math.floorDiv (viewX + viewWidth - 1, 16), levelWidth - 1);
+		int y2 = Math.min (Math.floorDiv (viewY + viewHeight - 1, 16), levelHeight - 1);
+		for (int layer = getLayerCount () - 1; layer >= 0; layer --) {
+			for (int i = x1; i <= x2; i ++) {
+				for (int j = y1; j <= y2; j ++) {
+					tileList [getTile (layer, i, j)].draw (i * 16 - viewX, j * 16 - viewY, 0, TILE_DEPTH + layer);
 				}
 			}
 		}
 	}
+	public void refreshTiles () {
+		//Recreates the tile sprites from the current frames of the tilesets, e.g. after they have been reloaded
+		if (tilesets == null) {
+			return;
+		}
+		buildTileList ();
+		if (chunkCache != null) {
+			chunkCache.invalidateAll ();
+		}
+		if (RenderLoop.wind != null) {
+			RenderLoop.wind.markAllDirty ();
+		}
+	}
+	private void buildTileList () {
+		//Creates a sprite for each tile used by the room from the frames of its tileset
+		ArrayList<Sprite> tileSheet = new ArrayList<Sprite> ();
+		for (int i = 0; i < tilesets.length; i ++) {
+			for (int j = 0; j < tilesets [i].getFrameCount (); j ++) {
+				tileSheet.add (new Sprite (tilesets [i].getFrame (j)));
+			}
+		}
+		tileList = new Sprite[tilesUsed.length];
+		for (int i = 0; i < tileList.length; i ++) {
+			tileList [i] = tileSheet.get (tilesUsed [i]);
+		}
+	}
+	public void unload () {
+		//Releases the tilesets used by this room, its pre-rendered chunks and its flow fields; tilesets held by another room stay cached
+		//To keep shared tilesets loaded when changing rooms, load the next room before unloading this one
+		if (assets != null) {
+			assets.release ();
+			assets = null;
+		}
+		tilesets = null;
+		tileList = null;
+		if (streamer != null) {
+			streamer.unloadAll ();
+		}
+		for (int i = 0; i < flowFields.size (); i ++) {
+			flowFields.get (i).dispose ();
+		}
+		flowFields.clear ();
+		if (chunkCache != null) {
+			chunkCache.invalidateAll ();
+		}
+	}
+	public String getPath () {
+		//Returns the filepath of the loaded map, or null if no map has been loaded
+		return path;
+	}
 	public void loadRoom (String path) throws FileNotFoundException {
 		//Loads the CMF file at the given filepath
-		readBit = 0;
-		File file = null;
-		FileInputStream stream = null;
-		file = new File (path);
-		inData = new byte[(int) file.length ()];
-		stream = new FileInputStream (file);
+		loadRoom (path, true);
+	}
+	void loadRoom (String path, boolean placeObjects) throws FileNotFoundException {
+		//Loads the CMF file at the given filepath, creating the objects placed in it only if placeObjects is true
+		this.path = path;
+		for (int i = 0; i < flowFields.size (); i ++) {
+			flowFields.get (i).invalidate ();
+		}
+		if (chunkCache != null) {
+			chunkCache.invalidateAll ();
+		}
+		CMFReader in;
 		try {
-			stream.read (inData);
-			stream.close ();
+			in = new CMFReader (path);
+		} catch (FileNotFoundException e) {
+			throw e;
 		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			e.printStackTrace ();
+			return;
 		}
-		if (readBits (24) != 0x434D46) {
+		if (in.read (24) != 0x434D46) {
 			System.out.println ("Error: file is corrupted or in an invalid format");
 		}
-		int version = readBits (8); //For future use
-		int layerCount = readBits (8); //For future use
-		//resizeLevel (readBits (16), readBits (16));
-		levelWidth = readBits (16);
-		levelHeight = readBits (16);
-		tileData = new short[layerCount][levelWidth][levelHeight];
-		for (int layer = 0; layer < layerCount; layer ++) {
-			for (int i = 0; i < levelWidth; i ++) {
-				for (int c = 0; c < levelHeight; c ++) {
-					tileData [layer][i][c] = -1;
-				}
-			}
+		int version = in.read (8);
+		int layerCount = in.read (8);
+		//resizeLevel (in.read (16), in.read (16));
+		levelWidth = in.read (16);
+		levelHeight = in.read (16);
+		if (streamer != null) {
+			streamer.unloadAll ();
+		}
+		if (streaming) {
+			//Only one layer is decoded at a time, then split into compressed chunks, unless the file is already chunked
+			tileData = null;
+			streamer = new ChunkStreamer (this, layerCount, levelWidth, levelHeight);
+		} else {
+			tileData = new short[layerCount][levelWidth][levelHeight];
+			streamer = null;
 		}
-		int tilesUsedLength = readBits (16);
-		int objectsPlacedLength = readBits (32);
-		int tempReadBit = readBit;
-		int result = 0;
-		int index = 0;
+		int tilesUsedLength = in.read (16);
+		int objectsPlacedLength = in.read (32);
 		//Parse tile set list
-		while (result != 0x3B) {
-			result = readBits (8);
-			index ++;
-		}
-		readBit = tempReadBit;
-		char[] tilesetNames = new char[index - 1];
-		for (int i = 0; i < index - 1; i ++) {
-			tilesetNames [i] = (char) readBits (8);
-		}
-		readBit += 8;
-		String tilesetList = new String (tilesetNames);
+		String tilesetList = in.readString (';');
 		String[] tilesetNameArray = tilesetList.split (",");
+		tilesetNames = tilesetList;
+		//Start decoding all the tilesets in parallel while the rest of the header is parsed
+		ArrayList<String> gridParams = new ArrayList<String> ();
+		gridParams.add ("grid 16 16");
+		SpriteParser gridParser = new SpriteParser (gridParams);
+		AssetScope tilesetScope = new AssetScope ();
+		ArrayList<Future<Sprite>> tilesetLoads = new ArrayList<Future<Sprite>> ();
+		for (int i = 0; i < tilesetNameArray.length; i ++) {
+			tilesetLoads.add (tilesetScope.load ("resources/tilesets/" + tilesetNameArray [i], gridParser));
+		}
 		//Parse object list
-		tempReadBit = readBit;
-		index = 0;
-		result = 0;
-		while (result != 0x3B) {
-			result = readBits (8);
-			index ++;
-		}
-		readBit = tempReadBit;
-		char[] objectNames = new char[index - 1];
-		for (int i = 0; i < index - 1; i ++) {
-			objectNames [i] = (char) readBits (8);
-		}
-		readBit += 8;
-		String objectString = new String (objectNames);
+		String objectString = in.readString (';');
 		if (objectString.equals ("")) {
 			objectList = new String[0];
 		} else {
 			objectList = objectString.split (",");
 		}
 		//Import tiles
-		ArrayList<Sprite> tileSheet = new ArrayList<Sprite> ();
 		ArrayList<String> tileIdArrList = new ArrayList<String> ();
-		Sprite importSheet;
-		ArrayList<String> gridParams = new ArrayList<String> ();
-		gridParams.add ("grid 16 16");
-		SpriteParser gridParser = new SpriteParser (gridParams);
+		tilesets = new Sprite[tilesetNameArray.length];
 		for (int i = 0; i < tilesetNameArray.length; i ++) {
-			//System.out.println("resources/tilesets/" + tilesetNameArray [i]);
-			importSheet = new Sprite ("resources/tilesets/" + tilesetNameArray [i], gridParser);
-			//System.out.println(tempSheet.length);
-			for (int j = 0; j < importSheet.getFrameCount (); j ++) {
-				tileSheet.add (new Sprite (importSheet.getFrame (j)));
+			tilesets [i] = AssetLoader.get (tilesetLoads.get (i));
+			for (int j = 0; j < tilesets [i].getFrameCount (); j ++) {
 				tileIdArrList.add (tilesetNameArray [i] + ":" + String.valueOf (j));
 			}
 		}
-		short[] tilesUsed = new short[tilesUsedLength];
+		//Release the tilesets of the previously loaded map only now, so those it shares with this one are not decoded again
+		if (assets != null) {
+			assets.release ();
+		}
+		assets = tilesetScope;
+		tilesUsed = new short[tilesUsedLength];
 		int tileBits = numBits (tilesUsedLength - 1);
-		tileList = new Sprite[tilesUsed.length];
 		tileIdList = new String[tileIdArrList.size ()];
-		int tileSheetBits = numBits (tileSheet.size () - 1);
+		//Chunked maps store every field in 16 bits, so they stay byte-aligned
+		boolean chunked = version == CHUNKED_VERSION;
+		int tileSheetBits = chunked ? 16 : numBits (tileIdArrList.size () - 1);
 		for (int i = 0; i < tilesUsedLength; i ++) {
-			tilesUsed [i] = (short) readBits (tileSheetBits);
-		}
-		for (int i = 0; i < tileList.length; i ++) {
-			tileList [i] = tileSheet.get (tilesUsed [i]);
-			tileIdList [i] = tileIdArrList.get (tilesUsed [i]);
+			tilesUsed [i] = (short) in.read (tileSheetBits);
 		}
+		buildTileList ();
 		for (int i = 0; i < tileIdArrList.size (); i ++) {
 			tileIdList [i] = tileIdArrList.get (i);
 		}
-		for (int i = 0; i < tileList.length; i ++) {
-			tileSheet.add (tileList [i]);
-		}
 		collisionData = new boolean[tileIdList.length];
+		costData = new int[tileIdList.length];
 		for (int i = 0; i < collisionData.length; i ++) {
 			TileData workingTile = tileAttributesList.getTile (tileIdList [i]);
 			if (workingTile != null) {
 				collisionData [i] = workingTile.isSolid ();
+				costData [i] = workingTile.getCost ();
 			} else {
 				collisionData [i] = true;
+				costData [i] = 1;
 			}
 		}
 		//Import object icons
-		int widthBits = numBits (levelWidth - 1);
-		int heightBits = numBits (levelHeight - 1);
-		int objectBits = numBits (objectList.length - 1);
+		int widthBits = chunked ? 16 : numBits (levelWidth - 1);
+		int heightBits = chunked ? 16 : numBits (levelHeight - 1);
+		int objectBits = chunked ? 16 : numBits (objectList.length - 1);
 		int objId;
 		int objX;
 		int objY;
-		Class<?> objectClass = null;
-		Constructor<?> constructor = null;
+		objectPlacements = new int[objectsPlacedLength * 3];
 		for (int i = 0; i < objectsPlacedLength; i ++) {
-			objId = readBits (objectBits);
-			objX = readBits (widthBits);
-			objY = readBits (heightBits);
-			try {
-				objectClass = Class.forName ("enemies." + objectList [objId]);
-			}
-			catch (ClassNotFoundException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
-			catch (IllegalArgumentException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
-			try {
-				GameObject obj = (GameObject) objectClass.newInstance ();
-				obj.setX (objX * 16);
-				obj.setY (objY * 16);
-				obj.declare ();
-			} catch (InstantiationException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			} catch (IllegalAccessException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
-			//objectList.add (new GameObject (readBits (objectBits), readBits (widthBits), readBits (heightBits)));
+			objId = in.read (objectBits);
+			objX = in.read (widthBits);
+			objY = in.read (heightBits);
+			objectPlacements [i * 3] = objId;
+			objectPlacements [i * 3 + 1] = objX;
+			objectPlacements [i * 3 + 2] = objY;
+			if (streamer != null) {
+				streamer.addObject (objId, objX, objY);
+			} else if (placeObjects) {
+				createObject (objId, objX, objY);
+			}
+			//objectList.add (new GameObject (in.read (objectBits), in.read (widthBits), in.read (heightBits)));
+		}
+		if (chunked) {
+			readChunks (in, layerCount);
+		} else {
+			readTiles (in, layerCount, tileBits, widthBits, heightBits);
+		}
+		//Precompute the pathfinding graph; a streamed map builds it on the first search instead, since building it reads every tile
+		if (streamer == null) {
+			pathfinder = new HierarchicalPathfinder (this);
+		} else {
+			pathfinder = null;
+		}
+	}
+	boolean reload () throws FileNotFoundException {
+		//Loads the map at this room's filepath again without creating the objects placed in it, returning false and leaving the room as it was if it cannot be loaded
+		//The map is loaded into a scratch room, whose tiles are then moved into this one, so a broken map never replaces a working one and the file is only read once
+		Room loaded = new Room ();
+		loaded.streaming = streaming;
+		boolean complete = false;
+		try {
+			loaded.loadRoom (path, false);
+			complete = loaded.tilesets != null;
+		} finally {
+			if (!complete) {
+				loaded.unload ();
+			}
+		}
+		if (!complete) {
+			return false;
+		}
+		if (streamer != null) {
+			streamer.unloadAll ();
+		}
+		//The scratch room's scope already holds every tileset of the new map, so those shared with the old one stay cached
+		if (assets != null) {
+			assets.release ();
+		}
+		assets = loaded.assets;
+		tilesets = loaded.tilesets;
+		tileList = loaded.tileList;
+		tilesUsed = loaded.tilesUsed;
+		tilesetNames = loaded.tilesetNames;
+		objectPlacements = loaded.objectPlacements;
+		tileIdList = loaded.tileIdList;
+		objectList = loaded.objectList;
+		tileData = loaded.tileData;
+		collisionData = loaded.collisionData;
+		costData = loaded.costData;
+		levelWidth = loaded.levelWidth;
+		levelHeight = loaded.levelHeight;
+		streamer = loaded.streamer;
+		if (streamer != null) {
+			streamer.setRoom (this);
+		}
+		pathfinder = loaded.pathfinder;
+		if (pathfinder != null) {
+			pathfinder.setRoom (this);
+		}
+		for (int i = 0; i < flowFields.size (); i ++) {
+			flowFields.get (i).invalidate ();
+		}
+		if (chunkCache != null) {
+			chunkCache.invalidateAll ();
+		}
+		return true;
+	}
+	GameObject createObject (int objId, int objX, int objY) {
+		//Creates and declares an object of the type at the given index in the object list, at the given tile coordinates
+		Class<?> objectClass = null;
+		try {
+			objectClass = Class.forName ("enemies." + objectList [objId]);
+		}
+		catch (ClassNotFoundException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+			return null;
 		}
+		catch (IllegalArgumentException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+			return null;
+		}
+		try {
+			GameObject obj = (GameObject) objectClass.newInstance ();
+			obj.setX (objX * 16);
+			obj.setY (objY * 16);
+			obj.declare ();
+			return obj;
+		} catch (InstantiationException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		} catch (IllegalAccessException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+		return null;
+	}
+	private void readTiles (CMFReader in, int layerCount, int tileBits, int widthBits, int heightBits) {
+		//Reads the tiles of a legacy map: for each layer, the ranges of identical tiles, then every tile not covered by a range
 		short id;
 		int x1;
 		int x2;
 		int y1;
 		int y2;
+		short[][] layerData = streamer != null ? new short[levelWidth][levelHeight] : null;
 		for (int layer = 0; layer < layerCount; layer ++) {
-			int fullRangesSize = readBits (32);
-			int horizRangesSize = readBits (32);
-			int vertRangesSize = readBits (32);
+			short[][] tiles = streamer != null ? layerData : tileData [layer];
+			for (int i = 0; i < levelWidth; i ++) {
+				for (int c = 0; c < levelHeight; c ++) {
+					tiles [i][c] = -1;
+				}
+			}
+			int fullRangesSize = in.read (32);
+			int horizRangesSize = in.read (32);
+			int vertRangesSize = in.read (32);
 			for (int i = 0; i < fullRangesSize; i ++) {
-				id = (short) readBits (tileBits);
-				x1 = readBits (widthBits);
-				x2 = readBits (widthBits);
-				y1 = readBits (heightBits);
-				y2 = readBits (heightBits);
-				//System.out.println(readBit);
+				id = (short) in.read (tileBits);
+				x1 = in.read (widthBits);
+				x2 = in.read (widthBits);
+				y1 = in.read (heightBits);
+				y2 = in.read (heightBits);
 				for (int j = x1; j <= x2; j ++) {
 					for (int k = y1; k <= y2; k ++) {
-						tileData [layer][j][k] = id;
+						tiles [j][k] = id;
 					}
 				}
 			}
 			for (int i = 0; i < horizRangesSize; i ++) {
-				id = (short) readBits (tileBits);
-				x1 = readBits (widthBits);
-				x2 = readBits (widthBits);
-				y1 = readBits (heightBits);
+				id = (short) in.read (tileBits);
+				x1 = in.read (widthBits);
+				x2 = in.read (widthBits);
+				y1 = in.read (heightBits);
 				for (int j = x1; j <= x2; j ++) {
-					tileData [layer][j][y1] = id;
+					tiles [j][y1] = id;
 				}
 			}
 			for (int i = 0; i < vertRangesSize; i ++) {
-				id = (short) readBits (tileBits);
-				x1 = readBits (widthBits);
-				y1 = readBits (heightBits);
-				y2 = readBits (heightBits);
+				id = (short) in.read (tileBits);
+				x1 = in.read (widthBits);
+				y1 = in.read (heightBits);
+				y2 = in.read (heightBits);
 				for (int j = y1; j <= y2; j ++) {
-					tileData [layer][x1][j] = id;
+					tiles [x1][j] = id;
 				}
 			}
 			for (int i = 0; i < levelWidth; i ++) {
 				for (int c = 0; c < levelHeight; c ++) {
-					if (tileData [layer][i][c] == -1) {
-						tileData [layer][i][c] = (short) readBits (tileBits);
+					if (tiles [i][c] == -1) {
+						tiles [i][c] = (short) in.read (tileBits);
 					}
 				}
 			}
+			if (streamer != null) {
+				streamer.setLayer (layer, tiles);
+			}
+		}
+	}
+	private void readChunks (CMFReader in, int layerCount) {
+		//Reads the tiles of a chunked map: the chunk size, then the offset and length of each compressed chunk, layer by layer
+		int chunkTiles = in.read (16);
+		int chunksWide = (levelWidth + chunkTiles - 1) / chunkTiles;
+		int chunksHigh = (levelHeight + chunkTiles - 1) / chunkTiles;
+		int chunkCount = chunksWide * chunksHigh;
+		int[] offsets = new int[layerCount * chunkCount];
+		int[] lengths = new int[layerCount * chunkCount];
+		for (int i = 0; i < offsets.length; i ++) {
+			offsets [i] = in.read (32);
+			lengths [i] = in.read (32);
+		}
+		if (streamer != null && chunkTiles == ChunkStreamer.CHUNK_TILES) {
+			//The compressed chunks are handed to the streamer as they are, so nothing is decoded at load
+			//Each one is copied off the mapped file, so the room doesn't fault if the file is overwritten after loading
+			for (int layer = 0; layer < layerCount; layer ++) {
+				for (int i = 0; i < chunkCount; i ++) {
+					int index = layer * chunkCount + i;
+					ByteBuffer section = ByteBuffer.allocate (lengths [index]);
+					section.put (in.slice (offsets [index], lengths [index]));
+					section.flip ();
+					streamer.setSection (layer, i, section);
+				}
+			}
+			return;
+		}
+		//Otherwise each layer is decoded whole, and split again into chunks of the streamer's size if the room is streamed
+		short[][] layerData = streamer != null ? new short[levelWidth][levelHeight] : null;
+		short[] chunk = new short[chunkTiles * chunkTiles];
+		for (int layer = 0; layer < layerCount; layer ++) {
+			short[][] tiles = streamer != null ? layerData : tileData [layer];
+			for (int cy = 0; cy < chunksHigh; cy ++) {
+				for (int cx = 0; cx < chunksWide; cx ++) {
+					int index = layer * chunkCount + cy * chunksWide + cx;
+					try {
+						ChunkStreamer.decompress (in.slice (offsets [index], lengths [index]), chunk);
+					} catch (DataFormatException e) {
+						System.out.println ("Error: file is corrupted or in an invalid format");
+					}
+					int x2 = Math.min ((cx + 1) * chunkTiles, levelWidth);
+					int y2 = Math.min ((cy + 1) * chunkTiles, levelHeight);
+					for (int i = cx * chunkTiles; i < x2; i ++) {
+						for (int j = cy * chunkTiles; j < y2; j ++) {
+							tiles [i][j] = chunk [(i - cx * chunkTiles) * chunkTiles + j - cy * chunkTiles];
+						}
+					}
+				}
+			}
+			if (streamer != null) {
+				streamer.setLayer (layer, tiles);
+			}
 		}
 	}
+	String getTilesetNames () {
+		//Returns the comma-separated names of the tilesets of the loaded map
+		return tilesetNames;
+	}
+	String[] getObjectList () {
+		//Returns the names of the object types placed in the loaded map
+		return objectList;
+	}
+	short[] getTilesUsed () {
+		//Returns the index of each tile across the frames of all the tilesets
+		return tilesUsed;
+	}
+	int[] getObjectPlacements () {
+		//Returns the object index and tile coordinates of each object placed in the loaded map, three values per object
+		return objectPlacements;
+	}
 	public int numBits (int num) {
 		//Returns the number of bits needed to represent a given number
 		for (int i = 31; i > 0; i --) {
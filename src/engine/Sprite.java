@@ -1,10 +1,10 @@
 package engine;
 
+import java.awt.Graphics;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 
 import javax.imageio.ImageIO;
 
@@ -14,10 +14,6 @@ import javax.imageio.ImageIO;
  *
  */
 public class Sprite {
-	/**
-	 * The global image cache
-	 */
-	private static HashMap<String, CacheNode> cache = new HashMap<String, CacheNode> ();
 	/**
 	 * The image data this sprite contains
 	 */
@@ -34,6 +30,22 @@ public class Sprite {
 	 * Whether the sprite is animated or not
 	 */
 	private boolean isAnimated;
+	/**
+	 * The ARGB pixels of each frame, for use by RasterBlitter; filled in as frames are first requested
+	 */
+	private int[][] pixels;
+	/**
+	 * The opacity of each frame, classified when the sprite is loaded
+	 */
+	private FrameOpacity[] opacity;
+	/**
+	 * The entry in the SpriteCache this sprite's images came from; null if the sprite was not loaded through the cache
+	 */
+	private SpriteCache.Entry cacheEntry;
+	/**
+	 * The atlas page of each frame, or -1 for frames not in the atlas; null until first requested
+	 */
+	private int[] atlasPages;
 	
 	/**
 	 * Constructs a sprite with the given image filepath and parsing parameter filepath.
@@ -43,28 +55,7 @@ public class Sprite {
 	public Sprite (String imagepath, String parsepath) {
 		this.imagePath = imagepath;
 		this.parsePath = parsepath;
-		String key = imagepath + ":" + parsepath;
-		CacheNode data = cache.get (key);
-		if (data == null) {
-			SpriteParser parser = new SpriteParser (parsepath);
-			File imageFile = new File (imagepath);
-			BufferedImage img = null;
-			try {
-				img = ImageIO.read (imageFile);
-			} catch (IOException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
-			images = parser.parse (img);
-			cache.put (key, new CacheNode (key, images));
-		} else {
-			images = data.getData ();
-		}
-		if (images.length > 1) {
-			isAnimated = true;
-		} else {
-			isAnimated = false;
-		}
+		load (imagepath + ":" + parsepath, new SpriteParser (parsepath), false);
 	}
 	
 	/**
@@ -75,7 +66,8 @@ public class Sprite {
 	public Sprite (BufferedImage image, String parsepath) {
 		this.parsePath = parsepath;
 		SpriteParser parser = new SpriteParser (parsepath);
-		images = parser.parse (image);
+		images = parser.parse (ImageConverter.toCompatible (image));
+		opacity = SpriteParser.classify (images);
 		if (images.length > 1) {
 			isAnimated = true;
 		} else {
@@ -89,7 +81,8 @@ public class Sprite {
 	 * @param parser The parser to use
 	 */
 	public Sprite (BufferedImage image, SpriteParser parser) {
-		images = parser.parse (image);
+		images = parser.parse (ImageConverter.toCompatible (image));
+		opacity = SpriteParser.classify (images);
 		if (images.length > 1) {
 			isAnimated = true;
 		} else {
@@ -98,26 +91,13 @@ public class Sprite {
 	}
 	
 	/**
-	 * Constructs a sprite with the given image path and parser. Does not support caching.
+	 * Constructs a sprite with the given image path and parser. Sprites with the same image and parsing parameters share their frames through the cache.
 	 * @param imagepath The image to use
 	 * @param parser The parser to use
 	 */
 	public Sprite (String imagepath, SpriteParser parser) {
 		this.imagePath = imagepath;
-		File imageFile = new File (imagepath);
-		BufferedImage img = null;
-		try {
-			img = ImageIO.read (imageFile);
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-		images = parser.parse (img);
-		if (images.length > 1) {
-			isAnimated = true;
-		} else {
-			isAnimated = false;
-		}
+		load (imagepath + ":" + parser.getKey (), parser, false);
 	}
 	
 	/**
@@ -126,22 +106,68 @@ public class Sprite {
 	 */
 	public Sprite (String imagepath) {
 		this.imagePath = imagepath;
-		CacheNode data = cache.get (imagepath);
+		load (imagepath, null, false);
+	}
+	
+	/**
+	 * Constructs an empty sprite, to be filled in by load.
+	 */
+	private Sprite () {
+		
+	}
+	
+	/**
+	 * Creates a sprite whose cache entry is held until the sprite is released, rather than for as long as the sprite is reachable. Used by AssetScope.
+	 * @param imagepath The filepath of the image
+	 * @param parsepath The filepath of the parsing parameters; null if parser is given or the image is not split
+	 * @param parser The parser to split the image with; null if parsepath is given or the image is not split
+	 * @return The new sprite
+	 */
+	static Sprite createHeld (String imagepath, String parsepath, SpriteParser parser) {
+		Sprite sprite = new Sprite ();
+		sprite.imagePath = imagepath;
+		sprite.parsePath = parsepath;
+		if (parsepath != null) {
+			sprite.load (imagepath + ":" + parsepath, new SpriteParser (parsepath), true);
+		} else if (parser != null) {
+			sprite.load (imagepath + ":" + parser.getKey (), parser, true);
+		} else {
+			sprite.load (imagepath, null, true);
+		}
+		return sprite;
+	}
+	
+	/**
+	 * Releases the cache entry held by a sprite created with createHeld. Does nothing for other sprites.
+	 */
+	void release () {
+		if (cacheEntry != null) {
+			SpriteCache.release (this, cacheEntry);
+		}
+	}
+	
+	/**
+	 * Uses the cache entry with the given key, decoding the image and adding it to the cache if it is not already cached.
+	 * @param key The key of the cache entry
+	 * @param parser The parser to split the image with; null to leave the image whole
+	 * @param held Whether to hold the entry until this sprite is released, rather than pinning it for as long as this sprite is reachable
+	 */
+	private void load (String key, SpriteParser parser, boolean held) {
+		SpriteCache.Entry data = held ? SpriteCache.hold (this, key) : SpriteCache.get (this, key);
 		if (data == null) {
-			File imageFile = new File (imagepath);
-			BufferedImage img = null;
-			try {
-				img = ImageIO.read (imageFile);
-			} catch (IOException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+			BufferedImage img = loadImage (imagePath);
+			BufferedImage[] frames = parser == null ? new BufferedImage[] {img} : parser.parse (img);
+			if (TextureAtlas.isEnabled ()) {
+				TextureAtlas.pack (frames);
 			}
-			images = new BufferedImage[] {img};
-			cache.put (imagepath, new CacheNode (imagepath, images));
+			data = SpriteCache.put (this, held, key, imagePath, parser, frames, SpriteParser.classify (frames));
+		}
+		useCacheEntry (data);
+		if (images.length > 1) {
+			isAnimated = true;
 		} else {
-			images = data.getData ();
+			isAnimated = false;
 		}
-		isAnimated = false;
 	}
 	
 	/**
@@ -150,11 +176,52 @@ public class Sprite {
 	 */
 	public Sprite (Sprite sprite) {
 		this.images = sprite.images;
+		this.pixels = sprite.pixels;
+		this.opacity = sprite.opacity;
+		if (sprite.cacheEntry != null) {
+			SpriteCache.pin (this, sprite.cacheEntry);
+			useCacheEntry (sprite.cacheEntry);
+		}
 		this.isAnimated = sprite.isAnimated;
 		this.imagePath = sprite.imagePath;
 		this.parsePath = sprite.parsePath;
 	}
 	
+	/**
+	 * Uses the images of the given cache entry, which must already be pinned for this sprite.
+	 * @param entry The entry to use
+	 */
+	private void useCacheEntry (SpriteCache.Entry entry) {
+		cacheEntry = entry;
+		images = entry.getFrames ();
+		opacity = entry.getOpacity ();
+	}
+	
+	/**
+	 * Discards the pixels and atlas pages looked up from this sprite's frames, after the frames have been replaced.
+	 */
+	void clearFrameData () {
+		pixels = null;
+		atlasPages = null;
+	}
+	
+	/**
+	 * Reads the image at the given filepath and converts it to a format compatible with the display.
+	 * @param imagepath The filepath of the image
+	 * @return The loaded image; null if it could not be read
+	 */
+	private static BufferedImage loadImage (String imagepath) {
+		File imageFile = new File (imagepath);
+		BufferedImage img = null;
+		try {
+			img = ImageIO.read (imageFile);
+		} catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+		return ImageConverter.toCompatible (img);
+	}
+	
 	/**
 	 * Gets the frame count of this sprite.
 	 * @return The number of frames in this sprite
@@ -168,7 +235,8 @@ public class Sprite {
 	 * @param image The image to use
 	 */
 	public Sprite (BufferedImage image) {
-		images = new BufferedImage[] {image};
+		images = new BufferedImage[] {ImageConverter.toCompatible (image)};
+		opacity = SpriteParser.classify (images);
 	}
 	
 	/**
@@ -187,9 +255,155 @@ public class Sprite {
 	 * @param frame The frame of this sprite to draw
 	 */
 	public void draw (int usedX, int usedY, int frame) {
-		if (frame < images.length) {
-			RenderLoop.wind.getBufferGraphics ().drawImage (images [frame], usedX, usedY, null);
+		draw (usedX, usedY, frame, 0);
+	}
+	
+	/**
+	 * Draws the given frame of this sprite at the given x and y coordinates and depth. The depth only has an effect when batch rendering is enabled. Ignored on the game logic thread while ObjectHandler.callAll is running GameObject logic.
+	 * @param usedX The x coordinate to draw this sprite at
+	 * @param usedY The y coordinate to draw this sprite at
+	 * @param frame The frame of this sprite to draw
+	 * @param depth The depth to draw this sprite at; sprites with a higher depth are drawn behind those with a lower depth
+	 */
+	public void draw (int usedX, int usedY, int frame, int depth) {
+		if (frame < images.length && !ObjectHandler.isStepping ()) {
+			RenderQueue queue = OffscreenRenderer.getRecordingQueue ();
+			if (queue == null) {
+				queue = RenderLoop.wind.getRenderQueue ();
+			}
+			if (queue != null) {
+				queue.add (this, frame, usedX, usedY, depth);
+			} else {
+				render (usedX, usedY, frame);
+			}
+		}
+	}
+	
+	/**
+	 * Draws a flipped copy of the given frame of this sprite at the given x and y coordinates.
+	 * @param usedX The x coordinate to draw this sprite at
+	 * @param usedY The y coordinate to draw this sprite at
+	 * @param frame The frame of this sprite to draw
+	 * @param flip Any combination of SpriteVariants.FLIP_HORIZONTAL and SpriteVariants.FLIP_VERTICAL
+	 */
+	public void drawFlipped (int usedX, int usedY, int frame, int flip) {
+		drawTransformed (usedX, usedY, frame, flip, 0, 1, 0);
+	}
+	
+	/**
+	 * Draws a transformed copy of the given frame of this sprite, centered on where the untransformed frame would be drawn. Transformed copies are cached by SpriteVariants, so repeated draws with the same transform are as fast as normal draws.
+	 * @param usedX The x coordinate the untransformed sprite would be drawn at
+	 * @param usedY The y coordinate the untransformed sprite would be drawn at
+	 * @param frame The frame of this sprite to draw
+	 * @param flip Any combination of SpriteVariants.FLIP_HORIZONTAL and SpriteVariants.FLIP_VERTICAL, or SpriteVariants.FLIP_NONE
+	 * @param angle The angle to rotate by, in degrees clockwise; rounded to the angle step set in SpriteVariants
+	 * @param scale The factor to scale by
+	 * @param depth The depth to draw this sprite at; sprites with a higher depth are drawn behind those with a lower depth
+	 */
+	public void drawTransformed (int usedX, int usedY, int frame, int flip, double angle, double scale, int depth) {
+		if (frame >= images.length || ObjectHandler.isStepping ()) {
+			return;
+		}
+		if (flip == SpriteVariants.FLIP_NONE && angle == 0 && scale == 1) {
+			draw (usedX, usedY, frame, depth);
+			return;
+		}
+		Sprite variant = SpriteVariants.get (this, frame, flip, angle, scale);
+		int offsetX = Math.floorDiv (images [frame].getWidth () - variant.getWidth (), 2);
+		int offsetY = Math.floorDiv (images [frame].getHeight () - variant.getHeight (), 2);
+		variant.draw (usedX + offsetX, usedY + offsetY, 0, depth);
+	}
+	
+	/**
+	 * Draws the given frame of this sprite to the window immediately, through the current frame's graphics object, bypassing the render queue.
+	 * @param usedX The x coordinate to draw this sprite at
+	 * @param usedY The y coordinate to draw this sprite at
+	 * @param frame The frame of this sprite to draw
+	 */
+	void render (int usedX, int usedY, int frame) {
+		render (RenderLoop.wind.getBufferGraphics (), usedX, usedY, frame);
+	}
+	
+	/**
+	 * Draws the given frame of this sprite to the window immediately, through the given graphics object unless raster rendering is enabled. Nothing is drawn if there is no frame to draw into.
+	 * @param bufferGraphics The graphics object for the current frame, as given by GameWindow.getBufferGraphics
+	 * @param usedX The x coordinate to draw this sprite at
+	 * @param usedY The y coordinate to draw this sprite at
+	 * @param frame The frame of this sprite to draw
+	 */
+	void render (Graphics bufferGraphics, int usedX, int usedY, int frame) {
+		RasterBlitter blitter = RenderLoop.wind.getBlitter ();
+		if (blitter != null) {
+			blitter.draw (this, frame, usedX, usedY);
+		} else if (bufferGraphics != null) {
+			bufferGraphics.drawImage (images [frame], usedX, usedY, null);
+		}
+	}
+	
+	/**
+	 * Gets the index of the atlas page the given frame is stored on.
+	 * @param frame The frame to look up
+	 * @return The index of the frame's atlas page; -1 if the frame is not in the atlas
+	 */
+	public int getAtlasPage (int frame) {
+		if (atlasPages == null || atlasPages.length != images.length) {
+			int[] pages = new int[images.length];
+			for (int i = 0; i < images.length; i ++) {
+				pages [i] = TextureAtlas.getPage (images [i]);
+			}
+			atlasPages = pages;
+		}
+		return atlasPages [frame];
+	}
+	
+	/**
+	 * Gets the ARGB pixels of the given frame, in rows from top to bottom. The pixels are copied out of the frame's image the first time they are requested.
+	 * @param frame The frame to get the pixels of
+	 * @return The pixels of the given frame
+	 */
+	public int[] getPixels (int frame) {
+		if (pixels == null || pixels.length != images.length) {
+			pixels = new int[images.length][];
+		}
+		if (pixels [frame] == null) {
+			BufferedImage image = images [frame];
+			pixels [frame] = image.getRGB (0, 0, image.getWidth (), image.getHeight (), null, 0, image.getWidth ());
 		}
+		return pixels [frame];
+	}
+	
+	/**
+	 * Gets the opacity classification of the given frame, which determines how renderers copy its pixels.
+	 * @param frame The frame to get the opacity of
+	 * @return The opacity of the frame
+	 */
+	public FrameOpacity getOpacity (int frame) {
+		return opacity [frame];
+	}
+	
+	/**
+	 * Returns true if the given frame has no transparent or translucent pixels.
+	 * @param frame The frame to check
+	 * @return Whether the frame is fully opaque
+	 */
+	public boolean isOpaque (int frame) {
+		return opacity [frame].getType () == FrameOpacity.OPAQUE;
+	}
+	
+	/**
+	 * Gets the width of the first frame of this sprite.
+	 * @return The width of this sprite, in pixels
+	 */
+	public int getWidth () {
+		return images [0].getWidth ();
+	}
+	
+	/**
+	 * Gets the height of the first frame of this sprite.
+	 * @return The height of this sprite, in pixels
+	 */
+	public int getHeight () {
+		return images [0].getHeight ();
 	}
 	
 	/**
@@ -216,65 +430,4 @@ public class Sprite {
 	public String getParsePath () {
 		return parsePath;
 	}
-	
-	private class CacheNode {
-		
-		/**
-		 * The number of times the data in this node has been accessed
-		 */
-		private int accessCount;
-		/**
-		 * The images stored in this node
-		 */
-		private BufferedImage[] data;
-		/**
-		 * The key associated with this node
-		 */
-		private String key;
-		
-		/**
-		 * Construct a new CacheNode indexed by the given key, holding the given data.
-		 * @param key The key to index this node
-		 * @param data The data to store in this node
-		 */
-		public CacheNode (String key, BufferedImage[] data) {
-			accessCount = 0;
-			this.key = key;
-			this.data = data;
-			cache.put (key, this);
-		}
-		
-		/**
-		 * Gets the key value associated with this node.
-		 * @return This node's key
-		 */
-		public String getKey () {
-			return key;
-		}
-		
-		/**
-		 * Gets the data stored by this node.
-		 * @return This node's data
-		 */
-		public BufferedImage[] getData () {
-			accessCount ++;
-			return data;
-		}
-		
-		/**
-		 * Gets the number of times getData has been called on this node.
-		 * @return The number of calls to getData
-		 */
-		public int getAccessCount () {
-			return accessCount;
-		}
-		
-		/**
-		 * Removes this element from the cache.
-		 * @return True if the element was removed; false oftherwise
-		 */
-		public boolean remove () {
-			return cache.remove (key, this);
-		}
-	}
 }
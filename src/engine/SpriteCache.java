@@ -0,0 +1,430 @@
+package engine;
+
+import java.awt.image.BufferedImage;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * The global cache of decoded sprite images, shared by all Sprites loaded from the same files.
+ * The cache measures the decoded size of each entry and evicts the least recently used entries once it is over its memory budget. Entries are pinned while any Sprite using them is still reachable, so only images nothing refers to are evicted.
+ * Entries acquired through an AssetScope are instead held until every scope holding them is released, and are evicted as soon as that happens.
+ * Evicted frames are also released from the texture atlas. All methods are safe to call from any thread.
+ * @author nathan
+ *
+ */
+public class SpriteCache {
+	
+	/**
+	 * The default memory budget, in bytes
+	 */
+	public static final long DEFAULT_BUDGET = 64 * 1024 * 1024;
+	
+	/**
+	 * The cached entries, ordered from least to most recently used
+	 */
+	private static LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry> (16, 0.75f, true);
+	/**
+	 * Receives the references of Sprites which have been garbage collected
+	 */
+	private static ReferenceQueue<Sprite> collected = new ReferenceQueue<Sprite> ();
+	/**
+	 * The number of bytes used by the cached entries
+	 */
+	private static long memoryUsed = 0;
+	/**
+	 * The maximum number of bytes the cached entries can use before unpinned entries are evicted
+	 */
+	private static long memoryBudget = DEFAULT_BUDGET;
+	/**
+	 * The number of lookups which found an entry
+	 */
+	private static long hits = 0;
+	/**
+	 * The number of lookups which found no entry
+	 */
+	private static long misses = 0;
+	/**
+	 * The number of entries evicted
+	 */
+	private static long evictions = 0;
+	
+	/**
+	 * SpriteCache cannot be constructed.
+	 */
+	private SpriteCache () {
+		
+	}
+	
+	/**
+	 * Looks up the entry with the given key, and pins it for as long as the given sprite is reachable.
+	 * @param user The sprite which will use the entry
+	 * @param key The key of the entry
+	 * @return The entry; null if there is no entry with the given key
+	 */
+	static synchronized Entry get (Sprite user, String key) {
+		Entry entry = entries.get (key);
+		if (entry == null) {
+			misses ++;
+			return null;
+		}
+		hits ++;
+		pin (user, entry);
+		return entry;
+	}
+	
+	/**
+	 * Looks up the entry with the given key, and holds it until the given sprite is released.
+	 * @param holder The sprite which will use the entry
+	 * @param key The key of the entry
+	 * @return The entry; null if there is no entry with the given key
+	 */
+	static synchronized Entry hold (Sprite holder, String key) {
+		Entry entry = entries.get (key);
+		if (entry == null) {
+			misses ++;
+			return null;
+		}
+		hits ++;
+		entry.holders.add (holder);
+		return entry;
+	}
+	
+	/**
+	 * Adds an entry to the cache and pins it for as long as the given sprite is reachable, then evicts unpinned entries if the cache is over its budget. If an entry with the same key was added in the meantime, e.g. by another thread, that entry is used instead.
+	 * @param user The sprite which will use the entry; null to add the entry without pinning it
+	 * @param key The key of the entry
+	 * @param imagePath The filepath of the image the frames were decoded from
+	 * @param parser The parser the image was split with; null if the image was not split
+	 * @param frames The decoded frames
+	 * @param opacity The opacity of each of the frames
+	 * @return The entry in the cache with the given key
+	 */
+	static synchronized Entry put (Sprite user, String key, String imagePath, SpriteParser parser, BufferedImage[] frames, FrameOpacity[] opacity) {
+		return put (user, false, key, imagePath, parser, frames, opacity);
+	}
+	
+	/**
+	 * Adds an entry to the cache for the given sprite, then evicts unpinned entries if the cache is over its budget. If an entry with the same key was added in the meantime, e.g. by another thread, that entry is used instead.
+	 * @param user The sprite which will use the entry; null to add the entry without pinning it
+	 * @param held Whether to hold the entry until the sprite is released, rather than pinning it for as long as the sprite is reachable
+	 * @param key The key of the entry
+	 * @param imagePath The filepath of the image the frames were decoded from
+	 * @param parser The parser the image was split with; null if the image was not split
+	 * @param frames The decoded frames
+	 * @param opacity The opacity of each of the frames
+	 * @return The entry in the cache with the given key
+	 */
+	static synchronized Entry put (Sprite user, boolean held, String key, String imagePath, SpriteParser parser, BufferedImage[] frames, FrameOpacity[] opacity) {
+		Entry entry = entries.get (key);
+		if (entry == null) {
+			entry = new Entry (key, imagePath, parser, frames, opacity);
+			entries.put (key, entry);
+			memoryUsed += entry.size;
+		}
+		if (user != null && held) {
+			entry.holders.add (user);
+		} else if (user != null) {
+			pin (user, entry);
+		}
+		evict ();
+		return entry;
+	}
+	
+	/**
+	 * Releases the hold the given sprite has on the given entry. Once an entry is neither held nor in use by a reachable Sprite, it is evicted immediately.
+	 * @param holder The sprite holding the entry
+	 * @param entry The entry to release
+	 */
+	static synchronized void release (Sprite holder, Entry entry) {
+		if (!entry.holders.remove (holder)) {
+			return;
+		}
+		removeCollected ();
+		if (entry.holders.isEmpty () && entry.users == 0 && entries.get (entry.key) == entry) {
+			entries.remove (entry.key);
+			memoryUsed -= entry.size;
+			evictions ++;
+			TextureAtlas.release (entry.frames);
+		}
+	}
+	
+	/**
+	 * Pins the given entry for as long as the given sprite is reachable.
+	 * @param user The sprite using the entry
+	 * @param entry The entry the sprite uses
+	 */
+	static synchronized void pin (Sprite user, Entry entry) {
+		entry.users ++;
+		new SpriteReference (user, entry, collected);
+	}
+	
+	/**
+	 * Replaces the frames of the given entry in place with newly decoded ones, so that every Sprite using the entry draws the new frames. The old frames are released from the atlas.
+	 * @param entry The entry to update
+	 * @param parser The parser the new frames were split with; null if the image was not split
+	 * @param frames The new frames
+	 * @param opacity The opacity of each of the new frames
+	 * @return true if the frames were replaced; false if the number of frames changed, in which case the entry is left as it was
+	 */
+	static synchronized boolean replace (Entry entry, SpriteParser parser, BufferedImage[] frames, FrameOpacity[] opacity) {
+		if (frames.length != entry.frames.length) {
+			return false;
+		}
+		TextureAtlas.release (entry.frames.clone ());
+		System.arraycopy (frames, 0, entry.frames, 0, frames.length);
+		System.arraycopy (opacity, 0, entry.opacity, 0, opacity.length);
+		entry.parser = parser;
+		long size = getSize (frames);
+		if (entries.get (entry.key) == entry) {
+			memoryUsed += size - entry.size;
+		}
+		entry.size = size;
+		Iterator<SpriteReference> iter = entry.references.iterator ();
+		while (iter.hasNext ()) {
+			Sprite user = iter.next ().get ();
+			if (user != null) {
+				user.clearFrameData ();
+			}
+		}
+		for (int i = 0; i < entry.holders.size (); i ++) {
+			entry.holders.get (i).clearFrameData ();
+		}
+		return true;
+	}
+	
+	/**
+	 * Gets every entry currently in the cache, without affecting their order of use.
+	 * @return The cached entries
+	 */
+	static synchronized Entry[] getEntries () {
+		return entries.values ().toArray (new Entry[0]);
+	}
+	
+	/**
+	 * Gets the decoded size of the given frames, in bytes. Missing frames count as 0 bytes.
+	 */
+	private static long getSize (BufferedImage[] frames) {
+		long bytes = 0;
+		for (int i = 0; i < frames.length; i ++) {
+			if (frames [i] != null) {
+				bytes += (long)frames [i].getWidth () * frames [i].getHeight () * 4;
+			}
+		}
+		return bytes;
+	}
+	
+	/**
+	 * Evicts unpinned entries, least recently used first, until the cache is within its memory budget.
+	 */
+	private static void evict () {
+		removeCollected ();
+		Iterator<Entry> iter = entries.values ().iterator ();
+		while (memoryUsed > memoryBudget && iter.hasNext ()) {
+			Entry entry = iter.next ();
+			if (entry.users == 0 && entry.holders.isEmpty ()) {
+				iter.remove ();
+				memoryUsed -= entry.size;
+				evictions ++;
+				TextureAtlas.release (entry.frames);
+			}
+		}
+	}
+	
+	/**
+	 * Unpins the entries used by Sprites which have been collected.
+	 */
+	private static void removeCollected () {
+		SpriteReference reference;
+		while ((reference = (SpriteReference)collected.poll ()) != null) {
+			reference.entry.users --;
+			reference.entry.references.remove (reference);
+		}
+	}
+	
+	/**
+	 * Sets the maximum number of bytes the cached entries can use, evicting unpinned entries if necessary.
+	 * @param budget The memory budget to use, in bytes
+	 */
+	public static synchronized void setMemoryBudget (long budget) {
+		memoryBudget = budget;
+		evict ();
+	}
+	
+	/**
+	 * Evicts every entry which is not held or in use by a reachable Sprite.
+	 */
+	public static synchronized void trim () {
+		long budget = memoryBudget;
+		memoryBudget = 0;
+		evict ();
+		memoryBudget = budget;
+	}
+	
+	/**
+	 * Gets the decoded size of all the cached entries.
+	 * @return The memory used, in bytes
+	 */
+	public static synchronized long getMemoryUsed () {
+		return memoryUsed;
+	}
+	
+	/**
+	 * Gets the number of cached entries.
+	 * @return The number of entries
+	 */
+	public static synchronized int size () {
+		return entries.size ();
+	}
+	
+	/**
+	 * Gets the number of lookups which found a cached entry.
+	 * @return The hit count
+	 */
+	public static synchronized long getHitCount () {
+		return hits;
+	}
+	
+	/**
+	 * Gets the number of lookups which found no cached entry.
+	 * @return The miss count
+	 */
+	public static synchronized long getMissCount () {
+		return misses;
+	}
+	
+	/**
+	 * Gets the number of entries evicted from the cache.
+	 * @return The eviction count
+	 */
+	public static synchronized long getEvictionCount () {
+		return evictions;
+	}
+	
+	/**
+	 * Gets a summary of the cache's counters, for logging.
+	 * @return A description of the cache's statistics
+	 */
+	public static synchronized String getStatistics () {
+		return "Sprite cache: " + entries.size () + " entries, " + (memoryUsed / 1024) + " KB of " + (memoryBudget / 1024) + " KB, hits: " + hits + ", misses: " + misses + ", evictions: " + evictions;
+	}
+	
+	/**
+	 * A cached set of decoded frames.
+	 */
+	static class Entry {
+		
+		/**
+		 * The key of this entry
+		 */
+		private final String key;
+		/**
+		 * The filepath of the image the frames were decoded from
+		 */
+		private final String imagePath;
+		/**
+		 * The parser the image was split with; null if the image was not split
+		 */
+		private SpriteParser parser;
+		/**
+		 * The decoded frames
+		 */
+		private final BufferedImage[] frames;
+		/**
+		 * The opacity of each of the frames
+		 */
+		private final FrameOpacity[] opacity;
+		/**
+		 * The decoded size of the frames, in bytes
+		 */
+		private long size;
+		/**
+		 * The number of reachable Sprites using this entry
+		 */
+		private int users;
+		/**
+		 * The references to the Sprites using this entry, kept reachable until they are collected
+		 */
+		private HashSet<SpriteReference> references = new HashSet<SpriteReference> ();
+		/**
+		 * The Sprites holding this entry until they are released, once per hold; shared by every AssetScope which acquired the entry
+		 */
+		private ArrayList<Sprite> holders = new ArrayList<Sprite> ();
+		
+		/**
+		 * Constructs a new Entry with the given key and data.
+		 */
+		private Entry (String key, String imagePath, SpriteParser parser, BufferedImage[] frames, FrameOpacity[] opacity) {
+			this.key = key;
+			this.imagePath = imagePath;
+			this.parser = parser;
+			this.frames = frames;
+			this.opacity = opacity;
+			size = getSize (frames);
+			users = 0;
+		}
+		
+		/**
+		 * Gets the key of this entry.
+		 * @return The key
+		 */
+		public String getKey () {
+			return key;
+		}
+		
+		/**
+		 * Gets the filepath of the image the frames of this entry were decoded from.
+		 * @return The image filepath
+		 */
+		public String getImagePath () {
+			return imagePath;
+		}
+		
+		/**
+		 * Gets the parser the image of this entry was split with.
+		 * @return The parser; null if the image was not split
+		 */
+		public SpriteParser getParser () {
+			return parser;
+		}
+		
+		/**
+		 * Gets the decoded frames of this entry.
+		 * @return The frames
+		 */
+		public BufferedImage[] getFrames () {
+			return frames;
+		}
+		
+		/**
+		 * Gets the opacity of each of the frames of this entry.
+		 * @return The opacity of the frames
+		 */
+		public FrameOpacity[] getOpacity () {
+			return opacity;
+		}
+	}
+	
+	/**
+	 * A weak reference to a Sprite which unpins its entry once the Sprite is collected.
+	 */
+	private static class SpriteReference extends WeakReference<Sprite> {
+		
+		/**
+		 * The entry the referenced Sprite uses
+		 */
+		private final Entry entry;
+		
+		/**
+		 * Constructs a new SpriteReference and registers it with its entry.
+		 */
+		public SpriteReference (Sprite sprite, Entry entry, ReferenceQueue<Sprite> queue) {
+			super (sprite, queue);
+			this.entry = entry;
+			entry.references.add (this);
+		}
+	}
+}
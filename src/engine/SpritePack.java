@@ -0,0 +1,209 @@
+package engine;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Reads and writes sprite packs: single binary files holding the decoded, already-split frames of many sprites, so that they can be loaded without decoding images or reading parameter files.
+ * A pack starts with the magic number "SPK", a version byte and the number of entries. Each entry holds its image path as a length-prefixed UTF-8 string, then its parser's key the same way (empty if the image is not split) followed by the parser's compiled ops, each as a length and its values. Then come the frame count, and for each frame its width, height and ARGB pixels. All values are big-endian.
+ * Loading a pack memory-maps it and copies each frame's pixels straight into a new image, then adds the frames to the SpriteCache under the same keys Sprite uses, so that later Sprite constructors find them there. Parsers are rebuilt from their stored ops, so parsers given directly, such as the grid parser rooms load tilesets with, can be packed too.
+ * @author nathan
+ *
+ */
+public class SpritePack {
+	
+	/**
+	 * The magic number and version at the start of every pack
+	 */
+	private static final int HEADER = 0x53504B02;
+	
+	/**
+	 * SpritePack cannot be constructed.
+	 */
+	private SpritePack () {
+		
+	}
+	
+	/**
+	 * Writes a pack holding the given sprites, decoding and splitting each one the same way Sprite does.
+	 * @param packPath The filepath to write the pack to
+	 * @param imagePaths The filepaths of the images to include
+	 * @param parsePaths The filepaths of the parsing parameters for each image; null entries for images which are not split
+	 * @throws IOException If an image could not be read or the pack could not be written
+	 */
+	public static void write (String packPath, String[] imagePaths, String[] parsePaths) throws IOException {
+		SpriteParser[] parsers = new SpriteParser[imagePaths.length];
+		for (int i = 0; i < imagePaths.length; i ++) {
+			if (parsePaths [i] != null) {
+				parsers [i] = new SpriteParser (parsePaths [i]);
+			}
+		}
+		write (packPath, imagePaths, parsers);
+	}
+	
+	/**
+	 * Writes a pack holding the given sprites, decoding each image and splitting it with the given parser.
+	 * @param packPath The filepath to write the pack to
+	 * @param imagePaths The filepaths of the images to include
+	 * @param parsers The parser for each image; null entries for images which are not split
+	 * @throws IOException If an image could not be read or the pack could not be written
+	 */
+	public static void write (String packPath, String[] imagePaths, SpriteParser[] parsers) throws IOException {
+		DataOutputStream out = new DataOutputStream (new BufferedOutputStream (new FileOutputStream (packPath)));
+		try {
+			out.writeInt (HEADER);
+			out.writeInt (imagePaths.length);
+			for (int i = 0; i < imagePaths.length; i ++) {
+				BufferedImage image = ImageIO.read (new File (imagePaths [i]));
+				if (image == null) {
+					throw new IOException ("Could not read image " + imagePaths [i]);
+				}
+				writeString (out, imagePaths [i]);
+				BufferedImage[] frames;
+				if (parsers [i] == null) {
+					frames = new BufferedImage[] {image};
+					writeString (out, "");
+				} else {
+					frames = parsers [i].parse (image);
+					writeString (out, parsers [i].getKey ());
+					int[][] ops = parsers [i].getOps ();
+					out.writeInt (ops.length);
+					for (int j = 0; j < ops.length; j ++) {
+						out.writeInt (ops [j].length);
+						for (int k = 0; k < ops [j].length; k ++) {
+							out.writeInt (ops [j][k]);
+						}
+					}
+				}
+				out.writeInt (frames.length);
+				for (int j = 0; j < frames.length; j ++) {
+					int width = frames [j].getWidth ();
+					int height = frames [j].getHeight ();
+					int[] pixels = frames [j].getRGB (0, 0, width, height, null, 0, width);
+					out.writeInt (width);
+					out.writeInt (height);
+					for (int k = 0; k < pixels.length; k ++) {
+						out.writeInt (pixels [k]);
+					}
+				}
+			}
+		} finally {
+			out.close ();
+		}
+	}
+	
+	/**
+	 * Loads all the sprites in a pack into the SpriteCache. Frames are packed into the texture atlas if it is enabled, as they would be when loaded from images. No images or parameter files are read.
+	 * @param packPath The filepath of the pack
+	 * @return The number of sprites loaded
+	 * @throws IOException If the pack could not be read or is not a valid pack
+	 */
+	public static int load (String packPath) throws IOException {
+		RandomAccessFile file = new RandomAccessFile (packPath, "r");
+		try {
+			FileChannel channel = file.getChannel ();
+			MappedByteBuffer data = channel.map (FileChannel.MapMode.READ_ONLY, 0, channel.size ());
+			if (data.getInt () != HEADER) {
+				throw new IOException (packPath + " is not a sprite pack, or is from an unsupported version");
+			}
+			int entryCount = data.getInt ();
+			for (int i = 0; i < entryCount; i ++) {
+				String imagePath = readString (data);
+				String parserKey = readString (data);
+				SpriteParser parser = null;
+				if (!parserKey.isEmpty ()) {
+					int[][] ops = new int[data.getInt ()][];
+					for (int j = 0; j < ops.length; j ++) {
+						ops [j] = new int[data.getInt ()];
+						data.asIntBuffer ().get (ops [j]);
+						data.position (data.position () + ops [j].length * 4);
+					}
+					parser = new SpriteParser (parserKey, ops);
+				}
+				BufferedImage[] frames = new BufferedImage[data.getInt ()];
+				for (int j = 0; j < frames.length; j ++) {
+					int width = data.getInt ();
+					int height = data.getInt ();
+					BufferedImage frame = new BufferedImage (width, height, BufferedImage.TYPE_INT_ARGB);
+					IntBuffer pixels = data.asIntBuffer ();
+					pixels.get (((DataBufferInt)frame.getRaster ().getDataBuffer ()).getData (), 0, width * height);
+					data.position (data.position () + width * height * 4);
+					frames [j] = ImageConverter.toCompatible (frame);
+				}
+				if (TextureAtlas.isEnabled ()) {
+					TextureAtlas.pack (frames);
+				}
+				String key = parser == null ? imagePath : imagePath + ":" + parserKey;
+				SpriteCache.put (null, key, imagePath, parser, frames, SpriteParser.classify (frames));
+			}
+			return entryCount;
+		} finally {
+			file.close ();
+		}
+	}
+	
+	/**
+	 * Writes a string to a pack as its length in UTF-8 bytes followed by the bytes.
+	 */
+	private static void writeString (DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes (StandardCharsets.UTF_8);
+		out.writeShort (bytes.length);
+		out.write (bytes);
+	}
+	
+	/**
+	 * Reads a string written by writeString.
+	 */
+	private static String readString (MappedByteBuffer data) {
+		byte[] bytes = new byte[data.getShort () & 0xFFFF];
+		data.get (bytes);
+		return new String (bytes, StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Writes a pack from the command line. The first argument is the filepath of the pack, and each following argument is an image filepath, optionally followed by a comma and either the filepath of its parsing parameters or the parameters themselves in braces, with lines separated by semicolons, e.g. "{grid 16 16}" for a tileset.
+	 * @param args The command line arguments
+	 */
+	public static void main (String[] args) {
+		if (args.length < 2) {
+			System.out.println ("Usage: SpritePack <pack file> <image>[,<parameters>|,{<parameter lines>}] ...");
+			return;
+		}
+		ArrayList<String> imagePaths = new ArrayList<String> ();
+		ArrayList<SpriteParser> parsers = new ArrayList<SpriteParser> ();
+		for (int i = 1; i < args.length; i ++) {
+			int comma = args [i].indexOf (',');
+			if (comma == -1) {
+				imagePaths.add (args [i]);
+				parsers.add (null);
+				continue;
+			}
+			imagePaths.add (args [i].substring (0, comma));
+			String parameters = args [i].substring (comma + 1);
+			if (parameters.startsWith ("{") && parameters.endsWith ("}")) {
+				parsers.add (new SpriteParser (new ArrayList<String> (Arrays.asList (parameters.substring (1, parameters.length () - 1).split (";")))));
+			} else {
+				parsers.add (new SpriteParser (parameters));
+			}
+		}
+		try {
+			write (args [0], imagePaths.toArray (new String[0]), parsers.toArray (new SpriteParser[0]));
+		} catch (IOException e) {
+			e.printStackTrace ();
+		}
+	}
+}
@@ -5,13 +5,17 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.HashMap;
 import java.util.Scanner;
 
 /**
  * A class for parsing an image into multiple subimages.
  * 
- * TODO DESCRIBE PARAMETER FORMAT
+ * Each line of the parameters produces frames in order, and is one of:
+ * "rectangle x y width height" for a single frame,
+ * "grid cellWidth cellHeight" for every cell of a grid, left to right and top to bottom, or
+ * "indexedGrid cellWidth cellHeight index..." for the given cells of a grid.
+ * Parameters are compiled into a list of ops once, and parameter files are only read the first time they are used.
  * 
  * @author nathan
  *
@@ -19,27 +23,39 @@ import java.util.Scanner;
 public class SpriteParser {
 	
 	/**
-	 * The list of parameters for this SpriteParser
+	 * Op code for a single rectangular frame: x, y, width, height
 	 */
-	private ArrayList<String> parameters;
+	private static final int RECTANGLE = 0;
+	/**
+	 * Op code for every cell of a grid: cell width, cell height
+	 */
+	private static final int GRID = 1;
+	/**
+	 * Op code for chosen cells of a grid: cell width, cell height, then the index of each cell
+	 */
+	private static final int INDEXED_GRID = 2;
+	
+	/**
+	 * The compiled ops of each parameter file read so far, by filepath
+	 */
+	private static HashMap<String, int[][]> compiled = new HashMap<String, int[][]> ();
+	
+	/**
+	 * The compiled parameters for this SpriteParser, one op per line; never modified once compiled
+	 */
+	private final int[][] ops;
+	/**
+	 * Identifies the parameters of this SpriteParser: the filepath they were read from, or their text for parameters given directly
+	 */
+	private final String key;
 	
 	/**
-	 * Constructs a new SpriteParser object from the given filepath.
+	 * Constructs a new SpriteParser object from the given filepath. Each file is only read and compiled once.
 	 * @param filepath The filepath to the list of parameters
 	 */
 	public SpriteParser (String filepath) {
-		parameters = new ArrayList<String> ();
-		File workingFile = new File (filepath);
-		Scanner fileScanner;
-		try {
-			fileScanner = new Scanner (workingFile);
-		} catch (FileNotFoundException e) {
-			return;
-		}
-		while (fileScanner.hasNextLine ()) {
-			parameters.add (fileScanner.nextLine ());
-		}
-		fileScanner.close ();
+		key = filepath;
+		ops = compileFile (filepath);
 	}
 	
 	/**
@@ -47,7 +63,31 @@ public class SpriteParser {
 	 * @param parameters The list of parameters for this parser
 	 */
 	public SpriteParser (ArrayList<String> parameters) {
-		this.parameters = parameters;
+		ops = compile (parameters);
+		StringBuilder text = new StringBuilder ("{");
+		for (int i = 0; i < ops.length; i ++) {
+			if (i != 0) {
+				text.append (';');
+			}
+			for (int j = 0; j < ops [i].length; j ++) {
+				text.append (j == 0 ? "" : " ").append (ops [i][j]);
+			}
+		}
+		key = text.append ('}').toString ();
+	}
+	
+	/**
+	 * Constructs a new SpriteParser from parameters which have already been compiled, e.g. ones stored in a sprite pack, without reading any files.
+	 * If the key is a filepath, the ops are also used for later SpriteParsers of that file which is not yet compiled, so it is never read.
+	 * @param key The key of the parameters, as given by getKey
+	 * @param ops The compiled parameters, as given by getOps
+	 */
+	SpriteParser (String key, int[][] ops) {
+		this.key = key;
+		this.ops = ops;
+		if (!key.startsWith ("{")) {
+			remember (key, ops);
+		}
 	}
 	
 	/**
@@ -56,37 +96,146 @@ public class SpriteParser {
 	 * @return A list of BufferedImages as the result of parsing the image
 	 */
 	public BufferedImage[] parse (BufferedImage source) {
-		if (parameters == null || parameters.size () == 0) {
+		if (ops.length == 0) {
 			return new BufferedImage[] {source};
 		}
-		LinkedList<BufferedImage> frames = new LinkedList<BufferedImage> ();
+		ArrayList<BufferedImage> frames = new ArrayList<BufferedImage> ();
+		for (int i = 0; i < ops.length; i ++) {
+			int[] op = ops [i];
+			BufferedImage[] images;
+			switch (op [0]) {
+				case RECTANGLE:
+					frames.add (source.getSubimage (op [1], op [2], op [3], op [4]));
+					break;
+				case GRID:
+					images = splitGrid (source, op [1], op [2]);
+					for (int j = 0; j < images.length; j ++) {
+						frames.add (images [j]);
+					}
+					break;
+				case INDEXED_GRID:
+					images = splitGrid (source, op [1], op [2]);
+					for (int j = 3; j < op.length; j ++) {
+						frames.add (images [op [j]]);
+					}
+					break;
+				default:
+					break;
+			}
+		}
+		return frames.toArray (new BufferedImage[0]);
+	}
+	
+	/**
+	 * Gets the key identifying this SpriteParser's parameters. Parsers with the same key split images into the same frames, so sprites are cached by image and parser key.
+	 * @return The filepath the parameters were read from, or a canonical form of parameters given directly
+	 */
+	public String getKey () {
+		return key;
+	}
+	
+	/**
+	 * Gets the compiled parameters of this SpriteParser, one op per line. The arrays must not be modified.
+	 * @return The compiled ops
+	 */
+	int[][] getOps () {
+		return ops;
+	}
+	
+	/**
+	 * Discards the compiled parameters of the given file, so that the next SpriteParser for it reads the file again.
+	 * @param filepath The filepath of the parameter file
+	 */
+	public static synchronized void invalidate (String filepath) {
+		compiled.remove (filepath);
+	}
+	
+	/**
+	 * Uses the given ops as the compiled parameters of the given file, unless the file has already been compiled.
+	 */
+	private static synchronized void remember (String filepath, int[][] fileOps) {
+		if (!compiled.containsKey (filepath)) {
+			compiled.put (filepath, fileOps);
+		}
+	}
+	
+	/**
+	 * Gets the compiled ops of the given parameter file, reading and compiling it if it has not been read before. A missing file compiles to no ops.
+	 */
+	private static synchronized int[][] compileFile (String filepath) {
+		int[][] fileOps = compiled.get (filepath);
+		if (fileOps != null) {
+			return fileOps;
+		}
+		ArrayList<String> parameters = new ArrayList<String> ();
+		File workingFile = new File (filepath);
+		Scanner fileScanner;
+		try {
+			fileScanner = new Scanner (workingFile);
+			while (fileScanner.hasNextLine ()) {
+				parameters.add (fileScanner.nextLine ());
+			}
+			fileScanner.close ();
+		} catch (FileNotFoundException e) {
+			//A missing parameter file leaves the image whole
+		}
+		fileOps = compile (parameters);
+		compiled.put (filepath, fileOps);
+		return fileOps;
+	}
+	
+	/**
+	 * Compiles each line of parameters into an op; blank lines and unknown ops are skipped.
+	 */
+	private static int[][] compile (ArrayList<String> parameters) {
+		ArrayList<int[]> compiledOps = new ArrayList<int[]> ();
+		if (parameters == null) {
+			return new int[0][];
+		}
 		for (int i = 0; i < parameters.size (); i ++) {
-			String param = parameters.get (i);
-			Scanner paramScanner = new Scanner (param);
+			Scanner paramScanner = new Scanner (parameters.get (i));
 			if (paramScanner.hasNext ()) {
-				BufferedImage[] images;
 				switch (paramScanner.next ()) {
 					case "rectangle":
-						frames.add (source.getSubimage (paramScanner.nextInt (), paramScanner.nextInt (), paramScanner.nextInt (), paramScanner.nextInt ()));
+						compiledOps.add (new int[] {RECTANGLE, paramScanner.nextInt (), paramScanner.nextInt (), paramScanner.nextInt (), paramScanner.nextInt ()});
 						break;
 					case "grid":
-						images = splitGrid (source, paramScanner.nextInt (), paramScanner.nextInt ());
-						for (int j = 0; j < images.length; j ++) {
-							frames.add (images [j]);
-						}
+						compiledOps.add (new int[] {GRID, paramScanner.nextInt (), paramScanner.nextInt ()});
 						break;
 					case "indexedGrid":
-						images = splitGrid (source, paramScanner.nextInt (), paramScanner.nextInt ());
+						ArrayList<Integer> values = new ArrayList<Integer> ();
+						values.add (INDEXED_GRID);
+						values.add (paramScanner.nextInt ());
+						values.add (paramScanner.nextInt ());
 						while (paramScanner.hasNextInt ()) {
-							frames.add (images [paramScanner.nextInt ()]);
+							values.add (paramScanner.nextInt ());
+						}
+						int[] op = new int[values.size ()];
+						for (int j = 0; j < op.length; j ++) {
+							op [j] = values.get (j);
 						}
+						compiledOps.add (op);
 						break;
 					default:
 						break;
 				}
 			}
+			paramScanner.close ();
 		}
-		return frames.toArray (new BufferedImage[0]);
+		return compiledOps.toArray (new int[0][]);
+	}
+	
+	/**
+	 * Classifies each of the given frames as opaque, bitmask or translucent, so that renderers can pick the cheapest way to draw them.
+	 * @param frames The frames to classify, as returned by parse
+	 * @return The opacity of each frame
+	 */
+	public static FrameOpacity[] classify (BufferedImage[] frames) {
+		FrameOpacity[] opacity = new FrameOpacity[frames.length];
+		for (int i = 0; i < frames.length; i ++) {
+			opacity [i] = FrameOpacity.classify (frames [i]);
+		}
+		return opacity;
 	}
 	
 	/**
@@ -0,0 +1,287 @@
+package engine;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Generates and caches flipped, rotated and scaled variants of sprite frames, so that drawing a transformed sprite costs the same as drawing any other sprite once its variant exists.
+ * Variants are generated the first time they are requested. Angles are rounded to a configurable step and scales to the nearest 1/64, which keeps the number of distinct variants small.
+ * Flips and quarter turns at the original scale are done by moving pixels and are exact; other transforms use nearest-neighbor sampling.
+ * The cache is shared by all sprites, bounded by a memory budget, and evicts the least recently used variants first. Variants are keyed by the frame image itself, so sprites which share their frames through the SpriteCache also share their variants.
+ * @author nathan
+ *
+ */
+public class SpriteVariants {
+	
+	/**
+	 * No flip
+	 */
+	public static final int FLIP_NONE = 0;
+	/**
+	 * Flip left to right
+	 */
+	public static final int FLIP_HORIZONTAL = 1;
+	/**
+	 * Flip top to bottom
+	 */
+	public static final int FLIP_VERTICAL = 2;
+	/**
+	 * The default step angles are rounded to, in degrees
+	 */
+	public static final double DEFAULT_ANGLE_STEP = 5;
+	/**
+	 * The default memory budget of the cache, in bytes
+	 */
+	public static final long DEFAULT_BUDGET = 16 * 1024 * 1024;
+	
+	/**
+	 * The cached variants, ordered from least to most recently used
+	 */
+	private static LinkedHashMap<Key, Sprite> variants = new LinkedHashMap<Key, Sprite> (16, 0.75f, true);
+	/**
+	 * The step angles are rounded to, in degrees
+	 */
+	private static double angleStep = DEFAULT_ANGLE_STEP;
+	/**
+	 * The number of bytes used by the cached variants
+	 */
+	private static long memoryUsed = 0;
+	/**
+	 * The maximum number of bytes the cached variants can use
+	 */
+	private static long memoryBudget = DEFAULT_BUDGET;
+	
+	/**
+	 * SpriteVariants cannot be constructed.
+	 */
+	private SpriteVariants () {
+		
+	}
+	
+	/**
+	 * Gets a variant of the given frame of a sprite, generating it if it is not cached. The frame is flipped first, then scaled, then rotated clockwise about its center.
+	 * @param sprite The sprite to transform
+	 * @param frame The frame of the sprite to transform
+	 * @param flip Any combination of FLIP_HORIZONTAL and FLIP_VERTICAL, or FLIP_NONE
+	 * @param angle The angle to rotate by, in degrees clockwise; rounded to the angle step
+	 * @param scale The factor to scale by; rounded to the nearest 1/64
+	 * @return The transformed frame, as a single-frame sprite
+	 */
+	public static synchronized Sprite get (Sprite sprite, int frame, int flip, double angle, double scale) {
+		int steps = (int)Math.round (360 / angleStep);
+		int angleIndex = (int)Math.round (angle / angleStep) % steps;
+		if (angleIndex < 0) {
+			angleIndex += steps;
+		}
+		int scaleIndex = Math.max ((int)Math.round (scale * 64), 1);
+		BufferedImage source = sprite.getFrame (frame);
+		Key key = new Key (source, flip & (FLIP_HORIZONTAL | FLIP_VERTICAL), angleIndex * angleStep, scaleIndex);
+		Sprite variant = variants.get (key);
+		if (variant == null) {
+			variant = new Sprite (generate (source, key.flip, key.angle, scaleIndex / 64.0));
+			variants.put (key, variant);
+			memoryUsed += getSize (variant);
+			evict ();
+		}
+		return variant;
+	}
+	
+	/**
+	 * Sets the step angles are rounded to, and discards all cached variants.
+	 * @param step The angle step to use, in degrees; should divide 360
+	 */
+	public static synchronized void setAngleStep (double step) {
+		if (step <= 0 || step > 360) {
+			throw new IllegalArgumentException ("Angle step must be between 0 and 360 degrees, not " + step);
+		}
+		angleStep = step;
+		clear ();
+	}
+	
+	/**
+	 * Gets the step angles are rounded to.
+	 * @return The angle step, in degrees
+	 */
+	public static synchronized double getAngleStep () {
+		return angleStep;
+	}
+	
+	/**
+	 * Sets the maximum number of bytes the cached variants can use, evicting variants if necessary.
+	 * @param budget The memory budget to use, in bytes
+	 */
+	public static synchronized void setMemoryBudget (long budget) {
+		memoryBudget = budget;
+		evict ();
+	}
+	
+	/**
+	 * Gets the number of bytes used by the cached variants.
+	 * @return The memory used, in bytes
+	 */
+	public static synchronized long getMemoryUsed () {
+		return memoryUsed;
+	}
+	
+	/**
+	 * Discards all cached variants.
+	 */
+	public static synchronized void clear () {
+		variants.clear ();
+		memoryUsed = 0;
+	}
+	
+	/**
+	 * Evicts the least-recently-used variants until the cache is within its memory budget. The most recently used variant is always kept.
+	 */
+	private static void evict () {
+		Iterator<Sprite> iter = variants.values ().iterator ();
+		while (memoryUsed > memoryBudget && variants.size () > 1) {
+			memoryUsed -= getSize (iter.next ());
+			iter.remove ();
+		}
+	}
+	
+	/**
+	 * Gets the number of bytes used by the image of the given variant.
+	 */
+	private static long getSize (Sprite variant) {
+		return (long)variant.getWidth () * variant.getHeight () * 4;
+	}
+	
+	/**
+	 * Creates a transformed copy of the given image.
+	 */
+	private static BufferedImage generate (BufferedImage source, int flip, double angle, double scale) {
+		if (scale == 1 && angle % 90 == 0) {
+			return remap (source, flip, (int)(angle / 90));
+		}
+		int width = source.getWidth ();
+		int height = source.getHeight ();
+		AffineTransform transform = new AffineTransform ();
+		transform.rotate (Math.toRadians (angle));
+		transform.scale (scale, scale);
+		if ((flip & FLIP_HORIZONTAL) != 0) {
+			transform.scale (-1, 1);
+		}
+		if ((flip & FLIP_VERTICAL) != 0) {
+			transform.scale (1, -1);
+		}
+		transform.translate (-width / 2.0, -height / 2.0);
+		double[] corners = {0, 0, width, 0, 0, height, width, height};
+		transform.transform (corners, 0, corners, 0, 4);
+		double minX = Math.min (Math.min (corners [0], corners [2]), Math.min (corners [4], corners [6]));
+		double maxX = Math.max (Math.max (corners [0], corners [2]), Math.max (corners [4], corners [6]));
+		double minY = Math.min (Math.min (corners [1], corners [3]), Math.min (corners [5], corners [7]));
+		double maxY = Math.max (Math.max (corners [1], corners [3]), Math.max (corners [5], corners [7]));
+		int resultWidth = Math.max ((int)Math.ceil (maxX - minX - 0.001), 1);
+		int resultHeight = Math.max ((int)Math.ceil (maxY - minY - 0.001), 1);
+		BufferedImage result = ImageConverter.createCompatible (resultWidth, resultHeight, Transparency.TRANSLUCENT);
+		AffineTransform placement = AffineTransform.getTranslateInstance (resultWidth / 2.0, resultHeight / 2.0);
+		placement.concatenate (transform);
+		Graphics2D resultGraphics = result.createGraphics ();
+		resultGraphics.setRenderingHint (RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+		resultGraphics.drawImage (source, placement, null);
+		resultGraphics.dispose ();
+		return result;
+	}
+	
+	/**
+	 * Creates a flipped and rotated copy of the given image by moving its pixels.
+	 * @param quarterTurns The number of quarter turns clockwise, from 0 to 3
+	 */
+	private static BufferedImage remap (BufferedImage source, int flip, int quarterTurns) {
+		int width = source.getWidth ();
+		int height = source.getHeight ();
+		int[] sourcePixels = source.getRGB (0, 0, width, height, null, 0, width);
+		boolean sideways = (quarterTurns & 1) != 0;
+		int resultWidth = sideways ? height : width;
+		int resultHeight = sideways ? width : height;
+		int[] resultPixels = new int[sourcePixels.length];
+		for (int y = 0; y < height; y ++) {
+			for (int x = 0; x < width; x ++) {
+				int flippedX = (flip & FLIP_HORIZONTAL) != 0 ? width - 1 - x : x;
+				int flippedY = (flip & FLIP_VERTICAL) != 0 ? height - 1 - y : y;
+				int resultX;
+				int resultY;
+				switch (quarterTurns) {
+					case 1:
+						resultX = height - 1 - flippedY;
+						resultY = flippedX;
+						break;
+					case 2:
+						resultX = width - 1 - flippedX;
+						resultY = height - 1 - flippedY;
+						break;
+					case 3:
+						resultX = flippedY;
+						resultY = width - 1 - flippedX;
+						break;
+					default:
+						resultX = flippedX;
+						resultY = flippedY;
+						break;
+				}
+				resultPixels [resultY * resultWidth + resultX] = sourcePixels [y * width + x];
+			}
+		}
+		BufferedImage result = ImageConverter.createCompatible (resultWidth, resultHeight, Transparency.TRANSLUCENT);
+		result.setRGB (0, 0, resultWidth, resultHeight, resultPixels, 0, resultWidth);
+		return result;
+	}
+	
+	/**
+	 * Identifies a variant by its source frame and rounded transform. Holds the frame image rather than the sprite, so cached variants do not keep sprites, and through them their SpriteCache entries, in use.
+	 */
+	private static class Key {
+		
+		/**
+		 * The frame image the variant is of, compared by identity
+		 */
+		private final BufferedImage source;
+		/**
+		 * The flips applied
+		 */
+		private final int flip;
+		/**
+		 * The rounded angle, in degrees
+		 */
+		private final double angle;
+		/**
+		 * The scale, in 64ths
+		 */
+		private final int scale;
+		
+		/**
+		 * Constructs a new Key with the given values.
+		 */
+		public Key (BufferedImage source, int flip, double angle, int scale) {
+			this.source = source;
+			this.flip = flip;
+			this.angle = angle;
+			this.scale = scale;
+		}
+		
+		@Override
+		public boolean equals (Object other) {
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			Key key = (Key)other;
+			return source == key.source && flip == key.flip && angle == key.angle && scale == key.scale;
+		}
+		
+		@Override
+		public int hashCode () {
+			int hash = System.identityHashCode (source);
+			hash = hash * 31 + flip;
+			hash = hash * 31 + Double.hashCode (angle);
+			return hash * 31 + scale;
+		}
+	}
+}
@@ -0,0 +1,178 @@
+package engine;
+
+import java.awt.Graphics2D;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.ArrayList;
+
+/**
+ * Packs sprite frames into a few large atlas pages, so that the frames drawn in a scene come from a small number of images. Packing is off unless enabled with setEnabled.
+ * Packed frames are replaced by subimages of their page, which act as (page, rectangle) references; the page of a frame can be looked up with getPage.
+ * Opaque frames are packed onto opaque pages and all other frames onto translucent pages, so that packing keeps opaque frames on the fast opaque blits. Each kind of page is filled with a simple shelf packer, left to right and top to bottom.
+ * @author nathan
+ *
+ */
+public class TextureAtlas {
+	
+	/**
+	 * The width and height of each atlas page, in pixels
+	 */
+	public static final int PAGE_SIZE = 1024;
+	
+	/**
+	 * The index used for the filling state of opaque pages
+	 */
+	private static final int OPAQUE_PAGES = 0;
+	/**
+	 * The index used for the filling state of translucent pages
+	 */
+	private static final int TRANSLUCENT_PAGES = 1;
+	
+	/**
+	 * Whether newly loaded sprites are packed into the atlas
+	 */
+	private static boolean enabled = false;
+	/**
+	 * The atlas pages
+	 */
+	private static ArrayList<BufferedImage> pages = new ArrayList<BufferedImage> ();
+	/**
+	 * The pixel data of each atlas page, used to identify which page a frame is on
+	 */
+	private static ArrayList<DataBuffer> pageData = new ArrayList<DataBuffer> ();
+	/**
+	 * The number of packed frames still in use on each atlas page
+	 */
+	private static ArrayList<Integer> pageFrames = new ArrayList<Integer> ();
+	/**
+	 * The index of the page being filled with opaque frames and of the page being filled with other frames; -1 if no such page has been made yet
+	 */
+	private static int[] fillingPages = {-1, -1};
+	/**
+	 * The x-coordinate of the next free space on the current shelf of each page being filled
+	 */
+	private static int[] shelfX = new int[2];
+	/**
+	 * The y-coordinate of the current shelf of each page being filled
+	 */
+	private static int[] shelfY = new int[2];
+	/**
+	 * The height of the current shelf of each page being filled
+	 */
+	private static int[] shelfHeight = new int[2];
+	
+	/**
+	 * TextureAtlas cannot be constructed.
+	 */
+	private TextureAtlas () {
+		
+	}
+	
+	/**
+	 * Sets whether sprites loaded from files, and room tilesets, are packed into the atlas when they are loaded. Packing is disabled by default.
+	 * @param packing Whether to pack loaded sprites
+	 */
+	public static void setEnabled (boolean packing) {
+		enabled = packing;
+	}
+	
+	/**
+	 * Returns true if sprites loaded from files are packed into the atlas.
+	 * @return Whether atlas packing is enabled
+	 */
+	public static boolean isEnabled () {
+		return enabled;
+	}
+	
+	/**
+	 * Copies each of the given frames into the atlas and replaces it with a reference to its place in the atlas. Frames which are too large for a page are left as they are.
+	 * @param frames The frames to pack; modified in place
+	 */
+	public static synchronized void pack (BufferedImage[] frames) {
+		for (int i = 0; i < frames.length; i ++) {
+			BufferedImage frame = frames [i];
+			if (frame == null || frame.getWidth () > PAGE_SIZE || frame.getHeight () > PAGE_SIZE || getPage (frame) != -1) {
+				continue;
+			}
+			int kind = frame.getTransparency () == Transparency.OPAQUE ? OPAQUE_PAGES : TRANSLUCENT_PAGES;
+			if (shelfX [kind] + frame.getWidth () > PAGE_SIZE) {
+				shelfX [kind] = 0;
+				shelfY [kind] += shelfHeight [kind];
+				shelfHeight [kind] = 0;
+			}
+			if (fillingPages [kind] == -1 || shelfY [kind] + frame.getHeight () > PAGE_SIZE) {
+				int full = fillingPages [kind];
+				if (full != -1 && pageFrames.get (full) == 0) {
+					pages.set (full, null);
+					pageData.set (full, null);
+				}
+				BufferedImage page = ImageConverter.createCompatible (PAGE_SIZE, PAGE_SIZE, kind == OPAQUE_PAGES ? Transparency.OPAQUE : Transparency.TRANSLUCENT);
+				pages.add (page);
+				pageData.add (page.getRaster ().getDataBuffer ());
+				pageFrames.add (0);
+				fillingPages [kind] = pages.size () - 1;
+				shelfX [kind] = 0;
+				shelfY [kind] = 0;
+				shelfHeight [kind] = 0;
+			}
+			int pageIndex = fillingPages [kind];
+			BufferedImage page = pages.get (pageIndex);
+			Graphics2D pageGraphics = page.createGraphics ();
+			pageGraphics.drawImage (frame, shelfX [kind], shelfY [kind], null);
+			pageGraphics.dispose ();
+			frames [i] = page.getSubimage (shelfX [kind], shelfY [kind], frame.getWidth (), frame.getHeight ());
+			pageFrames.set (pageIndex, pageFrames.get (pageIndex) + 1);
+			shelfX [kind] += frame.getWidth ();
+			shelfHeight [kind] = Math.max (shelfHeight [kind], frame.getHeight ());
+		}
+	}
+	
+	/**
+	 * Marks the given frames as no longer in use. Once every frame packed into a page has been released, the page is discarded, unless it is one of the pages currently being filled. Page indices are never reused.
+	 * @param frames The frames to release; frames not in the atlas are ignored
+	 */
+	public static synchronized void release (BufferedImage[] frames) {
+		for (int i = 0; i < frames.length; i ++) {
+			int page = frames [i] == null ? -1 : getPage (frames [i]);
+			if (page == -1) {
+				continue;
+			}
+			int remaining = pageFrames.get (page) - 1;
+			pageFrames.set (page, remaining);
+			if (remaining == 0 && page != fillingPages [OPAQUE_PAGES] && page != fillingPages [TRANSLUCENT_PAGES]) {
+				pages.set (page, null);
+				pageData.set (page, null);
+			}
+		}
+	}
+	
+	/**
+	 * Gets the index of the atlas page the given frame is on.
+	 * @param frame The frame to look up
+	 * @return The index of the frame's page; -1 if the frame is not in the atlas
+	 */
+	public static synchronized int getPage (BufferedImage frame) {
+		DataBuffer data = frame.getRaster ().getDataBuffer ();
+		for (int i = 0; i < pageData.size (); i ++) {
+			if (pageData.get (i) == data) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Gets the number of atlas pages in use.
+	 * @return The number of pages
+	 */
+	public static synchronized int getPageCount () {
+		int count = 0;
+		for (int i = 0; i < pages.size (); i ++) {
+			if (pages.get (i) != null) {
+				count ++;
+			}
+		}
+		return count;
+	}
+}
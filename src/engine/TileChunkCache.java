@@ -0,0 +1,207 @@
+package engine;
+
+import java.awt.Graphics;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Caches pre-rendered square chunks of a Room's tile layers, so that the background can be drawn with a handful of large images rather than one image per tile.
+ * Each layer is cached and drawn separately at its own depth, Room.TILE_DEPTH plus the layer, so objects can still be drawn between tile layers.
+ * Chunks are rendered the first time they become visible, evicted least-recently-used first when the cache exceeds its memory budget, and invalidated when a tile inside them changes.
+ * The cache can be used from several threads, e.g. drawn by the render thread while tiles are changed by the game logic thread.
+ * @author nathan
+ *
+ */
+public class TileChunkCache {
+	
+	/**
+	 * The width and height of each chunk, in pixels
+	 */
+	public static final int CHUNK_SIZE = 256;
+	/**
+	 * The width and height of each chunk, in tiles
+	 */
+	public static final int CHUNK_TILES = CHUNK_SIZE / 16;
+	/**
+	 * The default memory budget, in bytes
+	 */
+	public static final long DEFAULT_BUDGET = 32 * 1024 * 1024;
+	
+	/**
+	 * The room whose tiles are cached
+	 */
+	private Room room;
+	/**
+	 * The rendered chunks, indexed by layer and chunk and ordered from least to most recently used
+	 */
+	private LinkedHashMap<Integer, Sprite> chunks;
+	/**
+	 * The number of bytes used by the rendered chunks
+	 */
+	private long memoryUsed;
+	/**
+	 * The maximum number of bytes the rendered chunks can use
+	 */
+	private long memoryBudget;
+	
+	/**
+	 * Constructs a new TileChunkCache for the given room with the default memory budget.
+	 * @param room The room to cache the tiles of
+	 */
+	public TileChunkCache (Room room) {
+		this (room, DEFAULT_BUDGET);
+	}
+	
+	/**
+	 * Constructs a new TileChunkCache for the given room.
+	 * @param room The room to cache the tiles of
+	 * @param memoryBudget The maximum number of bytes to use for rendered chunks; should be enough to hold all the chunks in the view
+	 */
+	public TileChunkCache (Room room, long memoryBudget) {
+		this.room = room;
+		this.memoryBudget = memoryBudget;
+		chunks = new LinkedHashMap<Integer, Sprite> (16, 0.75f, true);
+		memoryUsed = 0;
+	}
+	
+	/**
+	 * Draws all the chunks which intersect the given view, layer by layer from the deepest, rendering any which are not cached.
+	 * @param viewX The x-coordinate of the view, in pixels
+	 * @param viewY The y-coordinate of the view, in pixels
+	 * @param viewWidth The width of the view, in pixels
+	 * @param viewHeight The height of the view, in pixels
+	 */
+	public void draw (int viewX, int viewY, int viewWidth, int viewHeight) {
+		int x1 = Math.max (Math.floorDiv (viewX, CHUNK_SIZE), 0);
+		int y1 = Math.max (Math.floorDiv (viewY, CHUNK_SIZE), 0);
+		int x2 = Math.min (Math.floorDiv (viewX + viewWidth - 1, CHUNK_SIZE), getChunksWide () - 1);
+		int y2 = Math.min (Math.floorDiv (viewY + viewHeight - 1, CHUNK_SIZE), getChunksHigh () - 1);
+		for (int layer = room.getLayerCount () - 1; layer >= 0; layer --) {
+			for (int i = x1; i <= x2; i ++) {
+				for (int j = y1; j <= y2; j ++) {
+					getChunk (layer, i, j).draw (i * CHUNK_SIZE - viewX, j * CHUNK_SIZE - viewY, 0, Room.TILE_DEPTH + layer);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Gets the rendered chunk of the given layer at the given chunk coordinates, rendering it if it is not cached.
+	 * @param layer The tile layer
+	 * @param chunkX The x-coordinate of the chunk, in chunks
+	 * @param chunkY The y-coordinate of the chunk, in chunks
+	 * @return The rendered chunk, as a single-frame sprite
+	 */
+	public synchronized Sprite getChunk (int layer, int chunkX, int chunkY) {
+		Integer key = getKey (layer, chunkX, chunkY);
+		Sprite chunk = chunks.get (key);
+		if (chunk == null) {
+			chunk = new Sprite (render (layer, chunkX, chunkY));
+			chunks.put (key, chunk);
+			memoryUsed += getSize (chunk);
+			evict ();
+		}
+		return chunk;
+	}
+	
+	/**
+	 * Discards the chunk of the given layer containing the given tile, e.g. after the tile changes.
+	 * @param layer The layer of the tile
+	 * @param tileX The x-coordinate of the tile
+	 * @param tileY The y-coordinate of the tile
+	 */
+	public synchronized void invalidate (int layer, int tileX, int tileY) {
+		Sprite chunk = chunks.remove (getKey (layer, tileX / CHUNK_TILES, tileY / CHUNK_TILES));
+		if (chunk != null) {
+			memoryUsed -= getSize (chunk);
+		}
+	}
+	
+	/**
+	 * Discards all rendered chunks.
+	 */
+	public synchronized void invalidateAll () {
+		chunks.clear ();
+		memoryUsed = 0;
+	}
+	
+	/**
+	 * Gets the number of bytes used by the rendered chunks.
+	 * @return The memory used, in bytes
+	 */
+	public synchronized long getMemoryUsed () {
+		return memoryUsed;
+	}
+	
+	/**
+	 * Sets the maximum number of bytes used by the rendered chunks, evicting chunks if necessary.
+	 * @param memoryBudget The memory budget to use, in bytes
+	 */
+	public synchronized void setMemoryBudget (long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+		evict ();
+	}
+	
+	/**
+	 * Evicts the least-recently-used chunks until the cache is within its memory budget. The most recently used chunk is always kept.
+	 */
+	private void evict () {
+		Iterator<Sprite> iter = chunks.values ().iterator ();
+		while (memoryUsed > memoryBudget && chunks.size () > 1) {
+			memoryUsed -= getSize (iter.next ());
+			iter.remove ();
+		}
+	}
+	
+	/**
+	 * Renders one layer of the chunk at the given chunk coordinates into a new image.
+	 */
+	private BufferedImage render (int layer, int chunkX, int chunkY) {
+		int tileX = chunkX * CHUNK_TILES;
+		int tileY = chunkY * CHUNK_TILES;
+		int tilesWide = Math.min (CHUNK_TILES, room.getWidth () - tileX);
+		int tilesHigh = Math.min (CHUNK_TILES, room.getHeight () - tileY);
+		BufferedImage chunk = ImageConverter.createCompatible (tilesWide * 16, tilesHigh * 16, Transparency.TRANSLUCENT);
+		Graphics chunkGraphics = chunk.getGraphics ();
+		for (int i = 0; i < tilesWide; i ++) {
+			for (int j = 0; j < tilesHigh; j ++) {
+				short id = room.getTile (layer, tileX + i, tileY + j);
+				if (id >= 0) {
+					chunkGraphics.drawImage (room.getTileSprite (id).getFrame (0), i * 16, j * 16, null);
+				}
+			}
+		}
+		chunkGraphics.dispose ();
+		return chunk;
+	}
+	
+	/**
+	 * Gets the number of bytes used by the image of the given chunk.
+	 */
+	private static long getSize (Sprite chunk) {
+		return (long)chunk.getWidth () * chunk.getHeight () * 4;
+	}
+	
+	/**
+	 * Gets the key of the given layer's chunk at the given chunk coordinates.
+	 */
+	private Integer getKey (int layer, int chunkX, int chunkY) {
+		return Integer.valueOf ((layer * getChunksHigh () + chunkY) * getChunksWide () + chunkX);
+	}
+	
+	/**
+	 * Gets the number of chunks across the room.
+	 */
+	private int getChunksWide () {
+		return (room.getWidth () + CHUNK_TILES - 1) / CHUNK_TILES;
+	}
+	
+	/**
+	 * Gets the number of chunks down the room.
+	 */
+	private int getChunksHigh () {
+		return (room.getHeight () + CHUNK_TILES - 1) / CHUNK_TILES;
+	}
+}
@@ -4,10 +4,16 @@ public class TileData {
 	//Container class for tile metadata
 	private String name;
 	private boolean isSolid;
+	private int cost;
 	public TileData (String name, boolean isSolid) {
 		//Name is in the format [tileset name].[position in tileset]
+		this (name, isSolid, 1);
+	}
+	public TileData (String name, boolean isSolid, int cost) {
+		//Cost is the pathfinding weight of moving onto this tile; higher values make pathfinders avoid it
 		this.name = name;
 		this.isSolid = isSolid;
+		this.cost = cost < 1 ? 1 : cost;
 	}
 	public String getName () {
 		return name;
@@ -15,4 +21,7 @@ public class TileData {
 	public boolean isSolid () {
 		return isSolid;
 	}
+	public int getCost () {
+		return cost;
+	}
 }
\ No newline at end of file